@@ -0,0 +1,59 @@
+package com.megster.cordova.ble.central;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Synthetic GATT tables. Services and characteristics alternate between 16-bit SIG UUIDs
+ * and 128-bit vendor UUIDs, and the properties cycle through all combinations.
+ */
+final class GattTables {
+
+    private GattTables() {}
+
+    static BluetoothGatt gatt(int services, int characteristicsPerService, int descriptorsPerCharacteristic) {
+        final List<BluetoothGattService> table = new ArrayList<BluetoothGattService>();
+        int properties = 0;
+        for (int s = 0; s < services; s++) {
+            BluetoothGattService service = new BluetoothGattService(uuid(s, 0x1800 + s), BluetoothGattService.SERVICE_TYPE_PRIMARY);
+            for (int c = 0; c < characteristicsPerService; c++) {
+                int permissions = BluetoothGattCharacteristic.PERMISSION_READ | (c % 2 == 0 ? BluetoothGattCharacteristic.PERMISSION_WRITE : 0);
+                BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(uuid(s + c + 1, 0x2A00 + c), properties++ & 0xFF, permissions);
+                for (int d = 0; d < descriptorsPerCharacteristic; d++) {
+                    characteristic.addDescriptor(new BluetoothGattDescriptor(uuid(0, 0x2900 + d), BluetoothGattDescriptor.PERMISSION_READ));
+                }
+                service.addCharacteristic(characteristic);
+            }
+            table.add(service);
+        }
+
+        return new BluetoothGatt() {
+            @Override
+            public List<BluetoothGattService> getServices() {
+                return table;
+            }
+        };
+    }
+
+    // a 16-bit SIG UUID for even n, a vendor UUID otherwise
+    static UUID uuid(int n, int shortUUID) {
+        if (n % 2 == 0) {
+            return new UUID(((long) shortUUID << 32) | 0x1000L, 0x800000805f9b34fbL);
+        }
+        return new UUID(0x6e400000b5a3f393L + ((long) shortUUID << 32), 0xe0a9e50e24dcca9eL + n);
+    }
+
+    static List<BluetoothGattCharacteristic> characteristics(BluetoothGatt gatt) {
+        List<BluetoothGattCharacteristic> characteristics = new ArrayList<BluetoothGattCharacteristic>();
+        for (BluetoothGattService service : gatt.getServices()) {
+            characteristics.addAll(service.getCharacteristics());
+        }
+        return characteristics;
+    }
+}
@@ -0,0 +1,65 @@
+package com.megster.cordova.ble.central;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// property and permission decoding of each characteristic and descriptor in a connect result
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HelperBenchmark {
+
+    private BluetoothGattCharacteristic[] characteristics;
+    private BluetoothGattDescriptor[] descriptors;
+    private int index;
+
+    @Setup
+    public void setUp() {
+        // 256 characteristics cover every property combination
+        BluetoothGatt gatt = GattTables.gatt(16, 16, 1);
+        List<BluetoothGattCharacteristic> list = GattTables.characteristics(gatt);
+        characteristics = list.toArray(new BluetoothGattCharacteristic[0]);
+        descriptors = new BluetoothGattDescriptor[characteristics.length];
+        for (int i = 0; i < characteristics.length; i++) {
+            descriptors[i] = characteristics[i].getDescriptors().get(0);
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & 0xFF;
+        return index;
+    }
+
+    @Benchmark
+    public JSONArray decodeProperties() {
+        return Helper.decodeProperties(characteristics[next()]);
+    }
+
+    @Benchmark
+    public JSONArray decodeCharacteristicPermissions() {
+        return Helper.decodePermissions(characteristics[next()]);
+    }
+
+    @Benchmark
+    public JSONArray decodeDescriptorPermissions() {
+        return Helper.decodePermissions(descriptors[next()]);
+    }
+}
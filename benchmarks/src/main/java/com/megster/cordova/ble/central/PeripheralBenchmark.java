@@ -0,0 +1,74 @@
+package com.megster.cordova.ble.central;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The connect result built from a synthetic GATT table with two descriptors per characteristic,
+ * and the per-notification lookup of the subscription in onCharacteristicChanged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PeripheralBenchmark {
+
+    @Param({ "4", "32" })
+    public int services;
+
+    @Param({ "16" })
+    public int characteristicsPerService;
+
+    private Peripheral peripheral;
+    private BluetoothGatt gatt;
+    private BluetoothGattCharacteristic[] characteristics;
+    private Map<String, Object> subscriptions = new HashMap<String, Object>();
+    private int index;
+
+    @Setup
+    public void setUp() {
+        byte[] scanRecord = new byte[62];
+        BluetoothDevice device = new BluetoothDevice("00:11:22:33:44:55", "Benchmark");
+        peripheral = new Peripheral(device, -60, scanRecord);
+        gatt = GattTables.gatt(services, characteristicsPerService, 2);
+        peripheral.onConnectionStateChange(gatt, BluetoothGatt.GATT_SUCCESS, BluetoothGatt.STATE_CONNECTED);
+
+        List<BluetoothGattCharacteristic> list = GattTables.characteristics(gatt);
+        characteristics = list.toArray(new BluetoothGattCharacteristic[0]);
+        for (BluetoothGattCharacteristic characteristic : characteristics) {
+            subscriptions.put(peripheral.generateHashKey(characteristic), characteristic);
+        }
+    }
+
+    @Benchmark
+    public JSONObject asJSONObject() {
+        return peripheral.asJSONObject(gatt);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public Object notificationLookup() {
+        index = (index + 1) % characteristics.length;
+        return subscriptions.get(peripheral.generateHashKey(characteristics[index]));
+    }
+}
@@ -0,0 +1,110 @@
+package com.megster.cordova.ble.central;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The result built and sent for every notification, payloads of a default and a large MTU.
+ * legacy is the emitter before the lock-free counter, multipart the current default and
+ * compact the single frame of { compact: true }. Run with -prof gc for the allocation rate.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SequentialCallbackContextBenchmark {
+
+    @Param({ "20", "244" })
+    public int payloadSize;
+
+    private LegacySequentialCallbackContext legacy;
+    private SequentialCallbackContext multipart;
+    private SequentialCallbackContext compact;
+    private byte[] payload;
+
+    @Setup
+    public void setUp(final Blackhole blackhole) throws Exception {
+        // the web view consumes the results so the encoding can't be optimized away
+        CordovaWebView webView = new CordovaWebView() {
+            @Override
+            public void sendPluginResult(PluginResult pluginResult, String callbackId) {
+                blackhole.consume(pluginResult);
+            }
+        };
+        legacy = new LegacySequentialCallbackContext(new CallbackContext("legacy", webView));
+        multipart = new SequentialCallbackContext(new CallbackContext("multipart", webView));
+        compact = new SequentialCallbackContext(new CallbackContext("compact", webView),
+                NotificationOptions.fromJSON(new JSONObject("{\"compact\": true}")));
+
+        payload = new byte[payloadSize];
+        for (int i = 0; i < payloadSize; i++) {
+            payload[i] = (byte) i;
+        }
+    }
+
+    @Benchmark
+    public void legacy() {
+        legacy.sendSequentialResult(payload);
+    }
+
+    @Benchmark
+    public void multipart() {
+        multipart.sendSequentialResult(payload);
+    }
+
+    @Benchmark
+    public void compact() {
+        compact.sendSequentialResult(payload);
+    }
+
+    @Benchmark
+    public PluginResult createSequentialResult() {
+        return multipart.createSequentialResult(payload);
+    }
+
+    // the emitter as it was, a monitor per sequence number and a multipart result
+    static class LegacySequentialCallbackContext {
+        private int sequence;
+        private final CallbackContext context;
+
+        LegacySequentialCallbackContext(CallbackContext context) {
+            this.context = context;
+        }
+
+        private int getNextSequenceNumber() {
+            synchronized(this) {
+                return this.sequence++;
+            }
+        }
+
+        void sendSequentialResult(byte data[]) {
+            List<PluginResult> resultList = new ArrayList<PluginResult>(2);
+            resultList.add(new PluginResult(PluginResult.Status.OK, data));
+            resultList.add(new PluginResult(PluginResult.Status.OK, this.getNextSequenceNumber()));
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, resultList);
+            result.setKeepCallback(true);
+            this.context.sendPluginResult(result);
+        }
+    }
+}
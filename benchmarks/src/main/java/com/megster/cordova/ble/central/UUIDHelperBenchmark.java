@@ -0,0 +1,136 @@
+package com.megster.cordova.ble.central;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * UUID conversions of every execute call and every entry of a connect result. The "same"
+ * benchmarks repeat one UUID, the "many" benchmarks cycle through 1024. The legacy benchmarks
+ * run the regex version the bit-level conversions replaced.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UUIDHelperBenchmark {
+
+    private static final int MANY = 1024;
+
+    private final String[] shortStrings = new String[MANY];
+    private final String[] longStrings = new String[MANY];
+    private final UUID[] sigUUIDs = new UUID[MANY];
+    private final UUID[] vendorUUIDs = new UUID[MANY];
+    private int index;
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < MANY; i++) {
+            sigUUIDs[i] = GattTables.uuid(0, 0x1000 + i);
+            vendorUUIDs[i] = GattTables.uuid(1, 0x1000 + i);
+            shortStrings[i] = Integer.toHexString(0x1000 + i);
+            longStrings[i] = vendorUUIDs[i].toString();
+        }
+    }
+
+    private int next() {
+        index = (index + 1) & (MANY - 1);
+        return index;
+    }
+
+    @Benchmark
+    public UUID fromShortStringSame() {
+        return UUIDHelper.uuidFromString("180d");
+    }
+
+    @Benchmark
+    public UUID fromLongStringSame() {
+        return UUIDHelper.uuidFromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    }
+
+    @Benchmark
+    public UUID fromShortStringMany() {
+        return UUIDHelper.uuidFromString(shortStrings[next()]);
+    }
+
+    @Benchmark
+    public UUID fromLongStringMany() {
+        return UUIDHelper.uuidFromString(longStrings[next()]);
+    }
+
+    @Benchmark
+    public String toStringSigSame() {
+        return UUIDHelper.uuidToString(sigUUIDs[0]);
+    }
+
+    @Benchmark
+    public String toStringVendorSame() {
+        return UUIDHelper.uuidToString(vendorUUIDs[0]);
+    }
+
+    @Benchmark
+    public String toStringSigMany() {
+        return UUIDHelper.uuidToString(sigUUIDs[next()]);
+    }
+
+    @Benchmark
+    public String toStringVendorMany() {
+        return UUIDHelper.uuidToString(vendorUUIDs[next()]);
+    }
+
+    @Benchmark
+    public UUID fromLongStringLegacy() {
+        return LegacyUUIDHelper.uuidFromString(longStrings[next()]);
+    }
+
+    @Benchmark
+    public UUID fromShortStringLegacy() {
+        return LegacyUUIDHelper.uuidFromString(shortStrings[next()]);
+    }
+
+    @Benchmark
+    public String toStringSigLegacy() {
+        return LegacyUUIDHelper.uuidToString(sigUUIDs[next()]);
+    }
+
+    @Benchmark
+    public String toStringVendorLegacy() {
+        return LegacyUUIDHelper.uuidToString(vendorUUIDs[next()]);
+    }
+
+    // UUIDHelper as it was, string replacement and a regex
+    static class LegacyUUIDHelper {
+        private static final Pattern pattern = Pattern.compile("0000(.{4})-0000-1000-8000-00805f9b34fb", Pattern.CASE_INSENSITIVE);
+
+        static UUID uuidFromString(String uuid) {
+            if (uuid.length() == 4) {
+                uuid = UUIDHelper.UUID_BASE.replace("XXXX", uuid);
+            }
+            return UUID.fromString(uuid);
+        }
+
+        static String uuidToString(UUID uuid) {
+            String longUUID = uuid.toString();
+            Matcher matcher = pattern.matcher(longUUID);
+            if (matcher.matches()) {
+                return matcher.group(1);
+            } else {
+                return longUUID;
+            }
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package android.app;
+
+import android.content.Context;
+
+// stand-in, only passed through to BluetoothDevice.connectGatt
+public class Activity extends Context {
+}
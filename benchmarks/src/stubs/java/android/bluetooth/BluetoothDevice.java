@@ -0,0 +1,33 @@
+package android.bluetooth;
+
+import android.content.Context;
+
+// stand-in, connecting returns no BluetoothGatt unless a subclass provides one
+public class BluetoothDevice {
+    public static final int TRANSPORT_AUTO = 0;
+    public static final int TRANSPORT_LE = 2;
+
+    private final String address;
+    private final String name;
+
+    public BluetoothDevice(String address, String name) {
+        this.address = address;
+        this.name = name;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback) {
+        return connectGatt(context, autoConnect, callback, TRANSPORT_AUTO);
+    }
+
+    public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback, int transport) {
+        return null;
+    }
+}
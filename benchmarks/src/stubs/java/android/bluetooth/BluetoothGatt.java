@@ -0,0 +1,92 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Stand-in with no remote device behind it, every operation is refused. Subclasses play
+ * a peripheral by returning services and answering operations through the callback.
+ */
+public class BluetoothGatt {
+    public static final int GATT_SUCCESS = 0;
+    public static final int GATT_READ_NOT_PERMITTED = 2;
+    public static final int GATT_WRITE_NOT_PERMITTED = 3;
+    public static final int GATT_FAILURE = 257;
+
+    public static final int STATE_DISCONNECTED = 0;
+    public static final int STATE_CONNECTING = 1;
+    public static final int STATE_CONNECTED = 2;
+    public static final int STATE_DISCONNECTING = 3;
+
+    public static final int CONNECTION_PRIORITY_BALANCED = 0;
+    public static final int CONNECTION_PRIORITY_HIGH = 1;
+    public static final int CONNECTION_PRIORITY_LOW_POWER = 2;
+
+    public List<BluetoothGattService> getServices() {
+        return new ArrayList<BluetoothGattService>();
+    }
+
+    public BluetoothGattService getService(UUID uuid) {
+        for (BluetoothGattService service : getServices()) {
+            if (service.getUuid().equals(uuid)) {
+                return service;
+            }
+        }
+        return null;
+    }
+
+    public BluetoothDevice getDevice() {
+        return null;
+    }
+
+    public void disconnect() {}
+
+    public void close() {}
+
+    public boolean discoverServices() {
+        return false;
+    }
+
+    public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return false;
+    }
+
+    public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+        return false;
+    }
+
+    public boolean readDescriptor(BluetoothGattDescriptor descriptor) {
+        return false;
+    }
+
+    public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+        return false;
+    }
+
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        return false;
+    }
+
+    public boolean readRemoteRssi() {
+        return false;
+    }
+
+    public boolean requestMtu(int mtu) {
+        return false;
+    }
+
+    public boolean requestConnectionPriority(int connectionPriority) {
+        return false;
+    }
+
+    public boolean beginReliableWrite() {
+        return false;
+    }
+
+    public boolean executeReliableWrite() {
+        return false;
+    }
+
+    public void abortReliableWrite() {}
+}
@@ -0,0 +1,52 @@
+package android.bluetooth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+// stand-in, instance ids are handed out like attribute handles
+public class BluetoothGattService {
+    public static final int SERVICE_TYPE_PRIMARY = 0;
+    public static final int SERVICE_TYPE_SECONDARY = 1;
+
+    private final UUID uuid;
+    private final int serviceType;
+    private final int instanceId = BluetoothGattCharacteristic.nextHandle();
+    private final List<BluetoothGattCharacteristic> characteristics = new ArrayList<BluetoothGattCharacteristic>();
+
+    public BluetoothGattService(UUID uuid, int serviceType) {
+        this.uuid = uuid;
+        this.serviceType = serviceType;
+    }
+
+    public UUID getUuid() {
+        return uuid;
+    }
+
+    public int getType() {
+        return serviceType;
+    }
+
+    public int getInstanceId() {
+        return instanceId;
+    }
+
+    public boolean addCharacteristic(BluetoothGattCharacteristic characteristic) {
+        characteristics.add(characteristic);
+        characteristic.setService(this);
+        return true;
+    }
+
+    public List<BluetoothGattCharacteristic> getCharacteristics() {
+        return characteristics;
+    }
+
+    public BluetoothGattCharacteristic getCharacteristic(UUID uuid) {
+        for (BluetoothGattCharacteristic characteristic : characteristics) {
+            if (characteristic.getUuid().equals(uuid)) {
+                return characteristic;
+            }
+        }
+        return null;
+    }
+}
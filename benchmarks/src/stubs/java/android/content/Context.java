@@ -0,0 +1,5 @@
+package android.content;
+
+// stand-in, only passed through to BluetoothDevice.connectGatt
+public class Context {
+}
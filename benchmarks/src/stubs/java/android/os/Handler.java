@@ -0,0 +1,30 @@
+package android.os;
+
+// stand-in, posts to its Looper's queue
+public class Handler {
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.myLooper() != null ? Looper.myLooper() : Looper.getMainLooper());
+    }
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return looper.enqueue(r, SystemClock.uptimeMillis());
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        return looper.enqueue(r, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        looper.remove(r);
+    }
+}
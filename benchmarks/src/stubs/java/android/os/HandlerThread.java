@@ -0,0 +1,31 @@
+package android.os;
+
+// stand-in, a thread that loops its own Looper
+public class HandlerThread extends Thread {
+    private final Looper looper = new Looper();
+
+    public HandlerThread(String name) {
+        super(name);
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        Looper.prepare(looper);
+        looper.loop();
+    }
+
+    public Looper getLooper() {
+        return looper;
+    }
+
+    public boolean quitSafely() {
+        looper.quit(true);
+        return true;
+    }
+
+    public boolean quit() {
+        looper.quit(false);
+        return true;
+    }
+}
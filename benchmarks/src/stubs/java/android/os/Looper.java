@@ -0,0 +1,110 @@
+package android.os;
+
+import java.util.PriorityQueue;
+
+/**
+ * Stand-in message queue ordered by due time. The main looper is not looped by any thread,
+ * code that needs its messages runs them with runUntilIdle. A HandlerThread loops its own.
+ */
+public class Looper {
+    private static final Looper MAIN = new Looper();
+    private static final ThreadLocal<Looper> CURRENT = new ThreadLocal<Looper>();
+
+    private final PriorityQueue<Message> queue = new PriorityQueue<Message>();
+    private long sequence = 0;
+    private boolean quitting = false;
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+
+    public static Looper myLooper() {
+        return CURRENT.get();
+    }
+
+    static void prepare(Looper looper) {
+        CURRENT.set(looper);
+    }
+
+    synchronized boolean enqueue(Runnable task, long uptimeMillis) {
+        if (quitting) {
+            return false;
+        }
+        queue.add(new Message(task, uptimeMillis, sequence++));
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Runnable task) {
+        queue.removeIf(message -> message.task == task);
+    }
+
+    // quitting safely still runs the messages that are already due
+    synchronized void quit(boolean safely) {
+        quitting = true;
+        if (safely) {
+            long now = SystemClock.uptimeMillis();
+            queue.removeIf(message -> message.when > now);
+        } else {
+            queue.clear();
+        }
+        notifyAll();
+    }
+
+    // runs the messages that are due now, returns the number that ran
+    public int runUntilIdle() {
+        int count = 0;
+        Runnable task;
+        while ((task = next(false)) != null) {
+            task.run();
+            count++;
+        }
+        return count;
+    }
+
+    void loop() {
+        Runnable task;
+        while ((task = next(true)) != null) {
+            task.run();
+        }
+    }
+
+    private synchronized Runnable next(boolean block) {
+        while (true) {
+            Message message = queue.peek();
+            long now = SystemClock.uptimeMillis();
+            if (message != null && message.when <= now) {
+                queue.poll();
+                return message.task;
+            }
+            if (!block || (quitting && message == null)) {
+                return null;
+            }
+            try {
+                wait(message == null ? 0 : Math.max(1, message.when - now));
+            } catch (InterruptedException e) {
+                return null;
+            }
+        }
+    }
+
+    private static class Message implements Comparable<Message> {
+        final Runnable task;
+        final long when;
+        final long sequence;
+
+        Message(Runnable task, long when, long sequence) {
+            this.task = task;
+            this.when = when;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo(Message other) {
+            if (when != other.when) {
+                return Long.compare(when, other.when);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package android.os;
+
+// stand-in, milliseconds of a monotonic clock. Tests can stop it and move it by hand.
+public class SystemClock {
+    private static volatile long manualMillis = -1;
+
+    public static long uptimeMillis() {
+        long manual = manualMillis;
+        return manual >= 0 ? manual : System.nanoTime() / 1000000;
+    }
+
+    // not part of Android, the clock stays at millis until it is set again
+    public static void setManualTime(long millis) {
+        manualMillis = millis;
+    }
+
+    // not part of Android, back to the monotonic clock
+    public static void useRealTime() {
+        manualMillis = -1;
+    }
+}
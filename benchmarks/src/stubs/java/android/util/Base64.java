@@ -0,0 +1,18 @@
+package android.util;
+
+// stand-in backed by java.util.Base64, DEFAULT wraps lines at 76 characters like Android
+public class Base64 {
+    public static final int DEFAULT = 0;
+    public static final int NO_WRAP = 2;
+
+    public static String encodeToString(byte[] input, int flags) {
+        if ((flags & NO_WRAP) != 0) {
+            return java.util.Base64.getEncoder().encodeToString(input);
+        }
+        return java.util.Base64.getMimeEncoder(76, new byte[] { '\n' }).encodeToString(input) + "\n";
+    }
+
+    public static byte[] decode(String str, int flags) {
+        return java.util.Base64.getMimeDecoder().decode(str);
+    }
+}
@@ -0,0 +1,6 @@
+package org.apache.cordova;
+
+// stand-in, only the bridge entry point the plugin results go through
+public interface CordovaWebView {
+    void sendPluginResult(PluginResult cr, String callbackId);
+}
@@ -0,0 +1,66 @@
+package org.apache.cordova;
+
+// stand-in, like Cordova's default only errors are logged
+public class LOG {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    public static int LOGLEVEL = ERROR;
+
+    public static boolean isLoggable(int logLevel) {
+        return logLevel >= LOGLEVEL;
+    }
+
+    public static void v(String tag, String s, Object... args) {
+        log(VERBOSE, tag, s, args);
+    }
+
+    public static void d(String tag, String s) {
+        log(DEBUG, tag, s);
+    }
+
+    public static void d(String tag, String s, Object... args) {
+        log(DEBUG, tag, s, args);
+    }
+
+    public static void i(String tag, String s) {
+        log(INFO, tag, s);
+    }
+
+    public static void i(String tag, String s, Object... args) {
+        log(INFO, tag, s, args);
+    }
+
+    public static void w(String tag, String s) {
+        log(WARN, tag, s);
+    }
+
+    public static void w(String tag, String s, Object... args) {
+        log(WARN, tag, s, args);
+    }
+
+    public static void w(String tag, String s, Throwable e) {
+        log(WARN, tag, s + ": " + e);
+    }
+
+    public static void e(String tag, String s) {
+        log(ERROR, tag, s);
+    }
+
+    public static void e(String tag, String s, Object... args) {
+        log(ERROR, tag, s, args);
+    }
+
+    public static void e(String tag, String s, Throwable e) {
+        log(ERROR, tag, s + ": " + e);
+    }
+
+    private static void log(int level, String tag, String s, Object... args) {
+        if (isLoggable(level)) {
+            System.err.println(tag + ": " + (args.length > 0 ? String.format(s, args) : s));
+        }
+    }
+}
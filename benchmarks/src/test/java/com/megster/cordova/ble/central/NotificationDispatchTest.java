@@ -0,0 +1,240 @@
+package com.megster.cordova.ble.central;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.util.Base64;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.megster.cordova.ble.central.ScriptedBluetoothGatt.characteristic;
+import static com.megster.cordova.ble.central.ScriptedBluetoothGatt.service;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NotificationDispatchTest {
+
+    private static final UUID HEART_RATE = UUIDHelper.uuidFromString("180d");
+    private static final UUID MEASUREMENT = UUIDHelper.uuidFromString("2a37");
+    private static final UUID CONTROL_POINT = UUIDHelper.uuidFromString("2a39");
+
+    private ScriptedBluetoothGatt gatt;
+    private Peripheral peripheral;
+    private BluetoothGattCharacteristic measurement;
+
+    @Before
+    public void setUp() {
+        VirtualTime.start();
+
+        measurement = characteristic("2a37", BluetoothGattCharacteristic.PROPERTY_NOTIFY);
+        BluetoothGattCharacteristic controlPoint = characteristic("2a39", BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE);
+        controlPoint.setValue(new byte[] { 1 });
+
+        gatt = new ScriptedBluetoothGatt(Arrays.asList(service("180d", measurement, controlPoint)));
+        peripheral = new Peripheral(gatt.getDevice());
+        RecordingCallbackContext connect = new RecordingCallbackContext("connect");
+        peripheral.connect(connect, null, false);
+        VirtualTime.advance(100);
+
+        assertTrue(connect.succeeded());
+        gatt.operations.clear();
+    }
+
+    @After
+    public void tearDown() {
+        VirtualTime.stop();
+    }
+
+    private RecordingCallbackContext subscribe(String options) throws Exception {
+        RecordingCallbackContext notifications = new RecordingCallbackContext("notifications");
+        peripheral.queueRegisterNotifyCallback(notifications, HEART_RATE, MEASUREMENT, NotificationOptions.fromJSON(new JSONObject(options)));
+        VirtualTime.advance(20);
+        return notifications;
+    }
+
+    @Test
+    public void subscribingEnablesNotificationsSilently() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{}");
+
+        assertEquals(Arrays.asList("enable " + MEASUREMENT, "writeDescriptor " + Peripheral.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID), gatt.operations);
+        assertEquals(0, notifications.answers().size());
+        assertTrue(notifications.results.get(0).getKeepCallback());
+    }
+
+    @Test
+    public void unsubscribingWaitsForTheDescriptorWrite() throws Exception {
+        subscribe("{}");
+        gatt.operations.clear();
+
+        RecordingCallbackContext stop = new RecordingCallbackContext("stop");
+        RecordingCallbackContext read = new RecordingCallbackContext("read");
+        peripheral.queueRemoveNotifyCallback(stop, HEART_RATE, MEASUREMENT);
+        peripheral.queueRead(read, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        VirtualTime.advance(5);
+        assertEquals(0, stop.answers().size());
+
+        VirtualTime.advance(50);
+        assertEquals(0, gatt.overlaps);
+        assertEquals(Arrays.asList("disable " + MEASUREMENT, "writeDescriptor " + Peripheral.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID, "read " + CONTROL_POINT), gatt.operations);
+        assertTrue(stop.succeeded());
+        assertTrue(read.succeeded());
+    }
+
+    @Test
+    public void notificationsArriveInOrderWithSequenceNumbers() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{}");
+        gatt.notifyEvery(measurement, 10, 100, 20);
+        VirtualTime.advance(1000);
+
+        List<PluginResult> answers = notifications.answers();
+        assertEquals(100, answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            PluginResult result = answers.get(i);
+            assertEquals(PluginResult.MESSAGE_TYPE_MULTIPART, result.getMessageType());
+            assertTrue(result.getKeepCallback());
+            assertEquals(i, decode(result.getMultipartMessage(0))[0]);
+            assertEquals(String.valueOf(i), result.getMultipartMessage(1).getMessage());
+        }
+    }
+
+    @Test
+    public void compactFramesStartWithTheSequenceNumber() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"compact\": true}");
+        gatt.notifyEvery(measurement, 10, 3, 20);
+        VirtualTime.advance(100);
+
+        List<PluginResult> answers = notifications.answers();
+        assertEquals(3, answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            byte[] frame = decode(answers.get(i));
+            assertEquals(SequentialCallbackContext.COMPACT_HEADER_SIZE + 20, frame.length);
+            assertEquals(i, frame[0] | frame[1] << 8 | frame[2] << 16 | frame[3] << 24);
+            assertEquals(i, frame[SequentialCallbackContext.COMPACT_HEADER_SIZE]);
+        }
+    }
+
+    @Test
+    public void batchIsSentAfterTheInterval() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"batchInterval\": 50}");
+        gatt.notifyEvery(measurement, 10, 4, 20);
+
+        VirtualTime.advance(55);
+        assertEquals(0, notifications.answers().size());
+
+        VirtualTime.advance(10);
+        List<PluginResult> answers = notifications.answers();
+        assertEquals(1, answers.size());
+        PluginResult batch = answers.get(0);
+        assertEquals(80, decode(batch.getMultipartMessage(0)).length);
+        assertEquals(new JSONArray("[20,20,20,20]").toString(), batch.getMultipartMessage(1).getMessage());
+        assertEquals(new JSONArray("[0,1,2,3]").toString(), batch.getMultipartMessage(2).getMessage());
+    }
+
+    @Test
+    public void batchIsSentWhenThePeripheralDisconnects() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"batchInterval\": 1000}");
+        gatt.notifyEvery(measurement, 10, 3, 20);
+        VirtualTime.advance(35);
+
+        gatt.disconnected();
+        assertEquals(1, notifications.answers().size());
+        assertEquals(new JSONArray("[0,1,2]").toString(), notifications.answers().get(0).getMultipartMessage(2).getMessage());
+    }
+
+    @Test
+    public void bufferedSubscriptionWaitsForCredit() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"bufferSize\": 4}");
+        gatt.notifyEvery(measurement, 1, 10, 20);
+        VirtualTime.advance(20);
+
+        // four are sent, four wait in the ring and the two oldest of those were dropped
+        assertEquals(4, notifications.answers().size());
+
+        RecordingCallbackContext acknowledge = new RecordingCallbackContext("acknowledge");
+        peripheral.acknowledgeNotifications(acknowledge, HEART_RATE, MEASUREMENT, 4);
+        VirtualTime.advance(1);
+        assertTrue(acknowledge.succeeded());
+
+        List<PluginResult> answers = notifications.answers();
+        assertEquals(8, answers.size());
+        int[] sequences = new int[answers.size()];
+        for (int i = 0; i < answers.size(); i++) {
+            sequences[i] = Integer.parseInt(answers.get(i).getMultipartMessage(1).getMessage());
+        }
+        assertEquals(Arrays.toString(new int[] { 0, 1, 2, 3, 6, 7, 8, 9 }), Arrays.toString(sequences));
+        assertEquals("2", answers.get(7).getMultipartMessage(2).getMessage());
+    }
+
+    @Test
+    public void notificationsFlushedOnDisconnectCanBeAcknowledged() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"bufferSize\": 4}");
+        gatt.notifyEvery(measurement, 1, 6, 20);
+        VirtualTime.advance(10);
+
+        gatt.disconnected();
+        assertEquals(6, notifications.answers().size());
+
+        RecordingCallbackContext acknowledge = new RecordingCallbackContext("acknowledge");
+        peripheral.acknowledgeNotifications(acknowledge, HEART_RATE, MEASUREMENT, 6);
+        assertTrue(acknowledge.succeeded());
+    }
+
+    @Test
+    public void changesOnlyComparesWithTheThrottledValueDelivered() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"changesOnly\": true, \"maxRate\": 1}");
+
+        // B is replaced by the second A while it waits, which is no change
+        gatt.notify(measurement, new byte[] { 'A' });
+        gatt.notify(measurement, new byte[] { 'B' });
+        gatt.notify(measurement, new byte[] { 'A' });
+        VirtualTime.advance(1100);
+        assertEquals(1, notifications.answers().size());
+
+        gatt.notify(measurement, new byte[] { 'B' });
+        VirtualTime.advance(1100);
+        List<PluginResult> answers = notifications.answers();
+        assertEquals(2, answers.size());
+        assertEquals('B', decode(answers.get(1).getMultipartMessage(0))[0]);
+    }
+
+    @Test
+    public void notificationsKeepFlowingWhileCommandsRun() throws Exception {
+        RecordingCallbackContext notifications = subscribe("{\"compact\": true}");
+        gatt.latencyMillis = 7;
+        gatt.notifyEvery(measurement, 1, 5000, 20);
+
+        RecordingCallbackContext[] reads = new RecordingCallbackContext[200];
+        for (int i = 0; i < reads.length; i++) {
+            reads[i] = new RecordingCallbackContext("read");
+            peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { (byte) i }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+            peripheral.queueRead(reads[i], HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        }
+        VirtualTime.advance(5000);
+
+        List<PluginResult> answers = notifications.answers();
+        assertEquals(5000, answers.size());
+        for (int i = 0; i < answers.size(); i++) {
+            byte[] frame = decode(answers.get(i));
+            assertEquals(i, frame[0] & 0xFF | (frame[1] & 0xFF) << 8);
+        }
+        for (int i = 0; i < reads.length; i++) {
+            assertTrue(reads[i].succeeded());
+            assertEquals(Base64.encodeToString(new byte[] { (byte) i }, Base64.NO_WRAP), reads[i].lastAnswer().getMessage());
+        }
+        assertEquals(0, gatt.overlaps);
+
+        JSONObject stats = peripheral.getStatsJSON(false);
+        assertEquals(5000, stats.getLong("notifications"));
+    }
+
+    private static byte[] decode(PluginResult result) {
+        assertEquals(PluginResult.MESSAGE_TYPE_ARRAYBUFFER, result.getMessageType());
+        return Base64.decode(result.getMessage(), Base64.DEFAULT);
+    }
+}
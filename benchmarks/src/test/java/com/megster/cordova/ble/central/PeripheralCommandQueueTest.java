@@ -0,0 +1,280 @@
+package com.megster.cordova.ble.central;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static com.megster.cordova.ble.central.ScriptedBluetoothGatt.characteristic;
+import static com.megster.cordova.ble.central.ScriptedBluetoothGatt.service;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PeripheralCommandQueueTest {
+
+    private static final UUID HEART_RATE = UUIDHelper.uuidFromString("180d");
+    private static final UUID CONTROL_POINT = UUIDHelper.uuidFromString("2a39");
+    private static final UUID BODY_SENSOR_LOCATION = UUIDHelper.uuidFromString("2a38");
+    private static final UUID UART = UUIDHelper.uuidFromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID UART_RX = UUIDHelper.uuidFromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
+
+    private ScriptedBluetoothGatt gatt;
+    private Peripheral peripheral;
+    private RecordingCallbackContext connectCallback;
+
+    @Before
+    public void setUp() {
+        VirtualTime.start();
+
+        BluetoothGattCharacteristic controlPoint = characteristic("2a39", BluetoothGattCharacteristic.PROPERTY_READ | BluetoothGattCharacteristic.PROPERTY_WRITE);
+        controlPoint.setValue(new byte[] { 1 });
+        BluetoothGattCharacteristic location = characteristic("2a38", BluetoothGattCharacteristic.PROPERTY_READ);
+        location.setValue(new byte[] { 2 });
+        BluetoothGattCharacteristic rx = characteristic("6e400002-b5a3-f393-e0a9-e50e24dcca9e",
+                BluetoothGattCharacteristic.PROPERTY_WRITE | BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE);
+
+        gatt = new ScriptedBluetoothGatt(Arrays.asList(
+                service("180d", controlPoint, location),
+                service("6e400001-b5a3-f393-e0a9-e50e24dcca9e", rx)));
+        peripheral = new Peripheral(gatt.getDevice());
+        connectCallback = new RecordingCallbackContext("connect");
+        peripheral.connect(connectCallback, null, false);
+        VirtualTime.advance(100);
+
+        assertTrue(connectCallback.succeeded());
+        gatt.operations.clear();
+    }
+
+    @After
+    public void tearDown() {
+        VirtualTime.stop();
+    }
+
+    @Test
+    public void commandsRunOneAtATimeInOrder() {
+        RecordingCallbackContext read = new RecordingCallbackContext("read");
+        RecordingCallbackContext write = new RecordingCallbackContext("write");
+        RecordingCallbackContext location = new RecordingCallbackContext("location");
+
+        peripheral.queueRead(read, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueWrite(write, HEART_RATE, CONTROL_POINT, new byte[] { 5 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueRead(location, HEART_RATE, BODY_SENSOR_LOCATION, BLECommand.PRIORITY_CONTROL);
+        VirtualTime.advance(100);
+
+        assertEquals(0, gatt.overlaps);
+        assertEquals(Arrays.asList("read " + CONTROL_POINT, "write " + CONTROL_POINT, "read " + BODY_SENSOR_LOCATION), gatt.operations);
+        assertTrue(read.succeeded());
+        assertTrue(write.succeeded());
+        assertTrue(location.succeeded());
+    }
+
+    @Test
+    public void controlCommandsGoBeforeBulk() {
+        peripheral.queueRead(new RecordingCallbackContext("read"), HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueWrite(new RecordingCallbackContext("bulk"), UART, UART_RX, new byte[20], BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, BLECommand.PRIORITY_BULK);
+        peripheral.queueWrite(new RecordingCallbackContext("bulk"), UART, UART_RX, new byte[20], BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, BLECommand.PRIORITY_BULK);
+        peripheral.queueRead(new RecordingCallbackContext("location"), HEART_RATE, BODY_SENSOR_LOCATION, BLECommand.PRIORITY_CONTROL);
+        VirtualTime.advance(100);
+
+        assertEquals(Arrays.asList("read " + CONTROL_POINT, "read " + BODY_SENSOR_LOCATION, "write " + UART_RX, "write " + UART_RX), gatt.operations);
+    }
+
+    @Test
+    public void bulkCommandGetsATurnAfterTheStarvationLimit() {
+        peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { 0 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueWrite(new RecordingCallbackContext("bulk"), UART, UART_RX, new byte[20], BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, BLECommand.PRIORITY_BULK);
+        for (int i = 1; i < 12; i++) {
+            peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { (byte) i }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+        }
+        VirtualTime.advance(200);
+
+        // the first control write went out before the bulk write was queued, eight more run while it waits
+        assertEquals(13, gatt.operations.size());
+        assertEquals("write " + UART_RX, gatt.operations.get(9));
+    }
+
+    @Test
+    public void controlCommandsOnlyCountWhileBulkWorkWaits() {
+        for (int i = 0; i < 12; i++) {
+            peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { (byte) i }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+        }
+        VirtualTime.advance(95);
+        assertEquals(10, gatt.operations.size());
+
+        // a long run of control commands before the bulk write arrived doesn't let it jump the queue
+        peripheral.queueWrite(new RecordingCallbackContext("bulk"), UART, UART_RX, new byte[20], BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, BLECommand.PRIORITY_BULK);
+        VirtualTime.advance(100);
+
+        assertEquals(13, gatt.operations.size());
+        assertEquals("write " + UART_RX, gatt.operations.get(12));
+    }
+
+    @Test
+    public void droppedCallbackTimesOutAndTheQueueMovesOn() throws Exception {
+        peripheral.setCommandTimeout(BLECommand.READ, 500);
+        gatt.dropCallbacks = 1;
+
+        RecordingCallbackContext read = new RecordingCallbackContext("read");
+        RecordingCallbackContext write = new RecordingCallbackContext("write");
+        peripheral.queueRead(read, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueWrite(write, HEART_RATE, CONTROL_POINT, new byte[] { 5 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+
+        VirtualTime.advance(499);
+        assertEquals(Collections.emptyList(), read.answers());
+        assertEquals(Collections.singletonList("read " + CONTROL_POINT), gatt.operations);
+
+        VirtualTime.advance(100);
+        assertTrue(read.failed());
+        assertTrue(read.lastAnswer().getMessage().contains("read timed out after 500 ms"));
+        assertTrue(write.succeeded());
+
+        JSONObject timeouts = peripheral.getStatsJSON(false).getJSONObject("timeouts");
+        assertEquals(1, timeouts.getInt("read"));
+        assertEquals(1, timeouts.getInt("total"));
+    }
+
+    @Test
+    public void lateAnswerAfterATimeoutIsIgnored() {
+        peripheral.setCommandTimeout(BLECommand.READ, 500);
+        gatt.latencyMillis = 800;
+
+        RecordingCallbackContext read = new RecordingCallbackContext("read");
+        peripheral.queueRead(read, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        VirtualTime.advance(1000);
+
+        assertEquals(1, read.answers().size());
+        assertTrue(read.failed());
+    }
+
+    @Test
+    public void identicalReadsAreCoalesced() {
+        peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { 7 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+
+        // one waits in the queue behind the write, the other joins it, the last joins the read in flight
+        List<RecordingCallbackContext> reads = new ArrayList<RecordingCallbackContext>();
+        for (int i = 0; i < 2; i++) {
+            reads.add(new RecordingCallbackContext("read"));
+            peripheral.queueRead(reads.get(i), HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        }
+        VirtualTime.advance(15);
+        reads.add(new RecordingCallbackContext("read"));
+        peripheral.queueRead(reads.get(2), HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        VirtualTime.advance(100);
+
+        assertEquals(Arrays.asList("write " + CONTROL_POINT, "read " + CONTROL_POINT), gatt.operations);
+        for (RecordingCallbackContext read : reads) {
+            assertTrue(read.succeeded());
+            assertEquals("Bw==", read.lastAnswer().getMessage());
+        }
+    }
+
+    @Test
+    public void readQueuedAfterAWriteIsNotCoalesced() {
+        peripheral.queueRead(new RecordingCallbackContext("location"), HEART_RATE, BODY_SENSOR_LOCATION, BLECommand.PRIORITY_CONTROL);
+
+        RecordingCallbackContext before = new RecordingCallbackContext("read");
+        RecordingCallbackContext after = new RecordingCallbackContext("read");
+        peripheral.queueRead(before, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { 9 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueRead(after, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        VirtualTime.advance(100);
+
+        assertEquals(4, gatt.operations.size());
+        assertEquals("AQ==", before.lastAnswer().getMessage());
+        assertEquals("CQ==", after.lastAnswer().getMessage());
+    }
+
+    @Test
+    public void bulkReadIsNotCoalescedAcrossAControlWrite() {
+        peripheral.queueRead(new RecordingCallbackContext("location"), HEART_RATE, BODY_SENSOR_LOCATION, BLECommand.PRIORITY_CONTROL);
+
+        // the control write runs before both bulk reads, the first was queued when the old value was current
+        RecordingCallbackContext before = new RecordingCallbackContext("read");
+        RecordingCallbackContext after = new RecordingCallbackContext("read");
+        peripheral.queueRead(before, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_BULK);
+        peripheral.queueWrite(new RecordingCallbackContext("write"), HEART_RATE, CONTROL_POINT, new byte[] { 9 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueRead(after, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_BULK);
+        VirtualTime.advance(100);
+
+        assertEquals(Arrays.asList("read " + BODY_SENSOR_LOCATION, "write " + CONTROL_POINT, "read " + CONTROL_POINT, "read " + CONTROL_POINT), gatt.operations);
+        assertEquals("CQ==", after.lastAnswer().getMessage());
+    }
+
+    @Test
+    public void chunkedWriteRetriesFragmentsTheStackRefuses() {
+        byte[] data = new byte[50];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        gatt.busyWrites = 3;
+
+        RecordingCallbackContext write = new RecordingCallbackContext("write");
+        peripheral.queueChunkedWrite(write, UART, UART_RX, data, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_BULK);
+        VirtualTime.advance(200);
+
+        assertTrue(write.succeeded());
+        assertEquals(1, write.answers().size());
+        assertEquals(3, Collections.frequency(gatt.operations, "busy"));
+        assertEquals(Arrays.asList(20, 20, 10), sizes(gatt.written));
+        assertArrayEquals(data, concat(gatt.written));
+    }
+
+    @Test
+    public void chunkedWriteUsesTheNegotiatedMtu() {
+        gatt.mtuLimit = 100;
+        RecordingCallbackContext mtu = new RecordingCallbackContext("mtu");
+        peripheral.requestMtu(mtu, 185);
+        VirtualTime.advance(20);
+        assertTrue(mtu.succeeded());
+        assertEquals("100", mtu.lastAnswer().getMessage());
+
+        RecordingCallbackContext write = new RecordingCallbackContext("write");
+        peripheral.queueChunkedWrite(write, UART, UART_RX, new byte[200], BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE, BLECommand.PRIORITY_BULK);
+        VirtualTime.advance(100);
+
+        assertTrue(write.succeeded());
+        assertEquals(Arrays.asList(97, 97, 6), sizes(gatt.written));
+    }
+
+    @Test
+    public void disconnectFailsTheQueuedCommands() {
+        RecordingCallbackContext read = new RecordingCallbackContext("read");
+        RecordingCallbackContext write = new RecordingCallbackContext("write");
+        peripheral.queueRead(read, HEART_RATE, CONTROL_POINT, BLECommand.PRIORITY_CONTROL);
+        peripheral.queueWrite(write, HEART_RATE, CONTROL_POINT, new byte[] { 5 }, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT, BLECommand.PRIORITY_CONTROL);
+
+        gatt.disconnected();
+        VirtualTime.advance(100);
+
+        assertTrue(connectCallback.failed());
+        assertTrue(read.failed());
+        assertTrue(write.failed());
+        assertEquals(1, read.answers().size());
+        assertEquals(1, write.answers().size());
+    }
+
+    private static List<Integer> sizes(List<byte[]> values) {
+        List<Integer> sizes = new ArrayList<Integer>();
+        for (byte[] value : values) {
+            sizes.add(value.length);
+        }
+        return sizes;
+    }
+
+    private static byte[] concat(List<byte[]> values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] value : values) {
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,50 @@
+package com.megster.cordova.ble.central;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// keeps every result sent to JavaScript, including the NO_RESULT that keeps a callback open
+class RecordingCallbackContext extends CallbackContext {
+    final List<PluginResult> results = new ArrayList<PluginResult>();
+
+    RecordingCallbackContext(String callbackId) {
+        super(callbackId, null);
+    }
+
+    @Override
+    public void sendPluginResult(PluginResult pluginResult) {
+        synchronized(this) {
+            results.add(pluginResult);
+        }
+        super.sendPluginResult(pluginResult);
+    }
+
+    // the results with a value, without NO_RESULT
+    synchronized List<PluginResult> answers() {
+        List<PluginResult> answers = new ArrayList<PluginResult>();
+        for (PluginResult result : results) {
+            if (result.getStatus() != PluginResult.Status.NO_RESULT.ordinal()) {
+                answers.add(result);
+            }
+        }
+        return answers;
+    }
+
+    synchronized PluginResult lastAnswer() {
+        List<PluginResult> answers = answers();
+        return answers.isEmpty() ? null : answers.get(answers.size() - 1);
+    }
+
+    boolean succeeded() {
+        PluginResult result = lastAnswer();
+        return result != null && result.getStatus() == PluginResult.Status.OK.ordinal();
+    }
+
+    boolean failed() {
+        PluginResult result = lastAnswer();
+        return result != null && result.getStatus() == PluginResult.Status.ERROR.ordinal();
+    }
+}
@@ -0,0 +1,251 @@
+package com.megster.cordova.ble.central;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A peripheral played on the main looper. Every operation is answered after latencyMillis
+ * unless the script says otherwise: busyWrites refuses that many writes the way a full stack
+ * buffer does, dropCallbacks loses that many answers and status is reported with each answer.
+ * Like Android it refuses an operation while another one is waiting for its answer, and counts
+ * that as an overlap.
+ */
+class ScriptedBluetoothGatt extends BluetoothGatt {
+    private final List<BluetoothGattService> services;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private BluetoothGattCallback callback;
+    private boolean busy = false;
+
+    long latencyMillis = 10;
+    int mtuLimit = 247;
+    int busyWrites = 0;
+    int dropCallbacks = 0;
+    int status = GATT_SUCCESS;
+    int rssi = -60;
+
+    final List<String> operations = new ArrayList<String>();
+    final List<byte[]> written = new ArrayList<byte[]>();
+    int overlaps = 0;
+
+    private final BluetoothDevice device = new BluetoothDevice("00:11:22:33:44:55", "Scripted") {
+        @Override
+        public BluetoothGatt connectGatt(Context context, boolean autoConnect, BluetoothGattCallback callback, int transport) {
+            ScriptedBluetoothGatt.this.callback = callback;
+            later(new Runnable() {
+                @Override
+                public void run() {
+                    ScriptedBluetoothGatt.this.callback.onConnectionStateChange(ScriptedBluetoothGatt.this, GATT_SUCCESS, STATE_CONNECTED);
+                }
+            });
+            return ScriptedBluetoothGatt.this;
+        }
+    };
+
+    ScriptedBluetoothGatt(List<BluetoothGattService> services) {
+        this.services = services;
+    }
+
+    @Override
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public List<BluetoothGattService> getServices() {
+        return services;
+    }
+
+    @Override
+    public boolean discoverServices() {
+        operations.add("discoverServices");
+        later(new Runnable() {
+            @Override
+            public void run() {
+                callback.onServicesDiscovered(ScriptedBluetoothGatt.this, GATT_SUCCESS);
+            }
+        });
+        return true;
+    }
+
+    @Override
+    public void disconnect() {
+        operations.add("disconnect");
+    }
+
+    // the peripheral dropped the link
+    void disconnected() {
+        callback.onConnectionStateChange(this, GATT_SUCCESS, STATE_DISCONNECTED);
+    }
+
+    @Override
+    public boolean readCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        if (!begin("read " + characteristic.getUuid())) {
+            return false;
+        }
+        return answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicRead(ScriptedBluetoothGatt.this, characteristic, status);
+            }
+        });
+    }
+
+    @Override
+    public boolean writeCharacteristic(final BluetoothGattCharacteristic characteristic) {
+        if (busyWrites > 0) {
+            busyWrites--;
+            operations.add("busy");
+            return false;
+        }
+        if (!begin("write " + characteristic.getUuid())) {
+            return false;
+        }
+        written.add(Arrays.copyOf(characteristic.getValue(), characteristic.getValue().length));
+        return answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onCharacteristicWrite(ScriptedBluetoothGatt.this, characteristic, status);
+            }
+        });
+    }
+
+    @Override
+    public boolean readDescriptor(final BluetoothGattDescriptor descriptor) {
+        if (!begin("readDescriptor " + descriptor.getUuid())) {
+            return false;
+        }
+        return answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDescriptorRead(ScriptedBluetoothGatt.this, descriptor, status);
+            }
+        });
+    }
+
+    @Override
+    public boolean writeDescriptor(final BluetoothGattDescriptor descriptor) {
+        if (!begin("writeDescriptor " + descriptor.getUuid())) {
+            return false;
+        }
+        return answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onDescriptorWrite(ScriptedBluetoothGatt.this, descriptor, status);
+            }
+        });
+    }
+
+    @Override
+    public boolean setCharacteristicNotification(BluetoothGattCharacteristic characteristic, boolean enable) {
+        operations.add((enable ? "enable " : "disable ") + characteristic.getUuid());
+        return true;
+    }
+
+    @Override
+    public boolean readRemoteRssi() {
+        if (!begin("readRemoteRssi")) {
+            return false;
+        }
+        return answer(new Runnable() {
+            @Override
+            public void run() {
+                callback.onReadRemoteRssi(ScriptedBluetoothGatt.this, rssi, status);
+            }
+        });
+    }
+
+    @Override
+    public boolean requestMtu(final int mtu) {
+        operations.add("requestMtu " + mtu);
+        later(new Runnable() {
+            @Override
+            public void run() {
+                callback.onMtuChanged(ScriptedBluetoothGatt.this, Math.min(mtu, mtuLimit), status);
+            }
+        });
+        return true;
+    }
+
+    // a notification arrives now, on the calling thread like a binder callback
+    void notify(BluetoothGattCharacteristic characteristic, byte[] value) {
+        characteristic.setValue(value);
+        callback.onCharacteristicChanged(this, characteristic);
+    }
+
+    // count notifications of size bytes, one every intervalMillis, the first byte counts up
+    void notifyEvery(final BluetoothGattCharacteristic characteristic, final long intervalMillis, final int count, final int size) {
+        for (int i = 0; i < count; i++) {
+            final byte[] value = new byte[size];
+            value[0] = (byte) i;
+            handler.postDelayed(new Runnable() {
+                @Override
+                public void run() {
+                    ScriptedBluetoothGatt.this.notify(characteristic, value);
+                }
+            }, intervalMillis * (i + 1));
+        }
+    }
+
+    private boolean begin(String operation) {
+        if (busy) {
+            overlaps++;
+            operations.add("refused " + operation);
+            return false;
+        }
+        busy = true;
+        operations.add(operation);
+        return true;
+    }
+
+    // the peripheral answers after the latency, a dropped answer still frees the stack
+    private boolean answer(final Runnable callback) {
+        final boolean drop = dropCallbacks > 0;
+        if (drop) {
+            dropCallbacks--;
+        }
+        later(new Runnable() {
+            @Override
+            public void run() {
+                busy = false;
+                if (!drop) {
+                    callback.run();
+                }
+            }
+        });
+        return true;
+    }
+
+    private void later(Runnable task) {
+        handler.postDelayed(task, latencyMillis);
+    }
+
+    static BluetoothGattService service(String uuid, BluetoothGattCharacteristic... characteristics) {
+        BluetoothGattService service = new BluetoothGattService(UUIDHelper.uuidFromString(uuid), BluetoothGattService.SERVICE_TYPE_PRIMARY);
+        for (BluetoothGattCharacteristic characteristic : characteristics) {
+            service.addCharacteristic(characteristic);
+        }
+        return service;
+    }
+
+    // notifying characteristics get the client characteristic configuration descriptor
+    static BluetoothGattCharacteristic characteristic(String uuid, int properties) {
+        BluetoothGattCharacteristic characteristic = new BluetoothGattCharacteristic(UUIDHelper.uuidFromString(uuid), properties,
+                BluetoothGattCharacteristic.PERMISSION_READ | BluetoothGattCharacteristic.PERMISSION_WRITE);
+        if ((properties & (BluetoothGattCharacteristic.PROPERTY_NOTIFY | BluetoothGattCharacteristic.PROPERTY_INDICATE)) != 0) {
+            characteristic.addDescriptor(new BluetoothGattDescriptor(Peripheral.CLIENT_CHARACTERISTIC_CONFIGURATION_UUID,
+                    BluetoothGattDescriptor.PERMISSION_READ | BluetoothGattDescriptor.PERMISSION_WRITE));
+        }
+        return characteristic;
+    }
+}
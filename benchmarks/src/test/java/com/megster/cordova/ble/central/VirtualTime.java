@@ -0,0 +1,39 @@
+package com.megster.cordova.ble.central;
+
+import android.os.Looper;
+import android.os.SystemClock;
+
+/**
+ * Runs the main looper on a clock that only moves when a test advances it, so timeouts,
+ * retries and batch intervals happen in the same order on every run.
+ */
+final class VirtualTime {
+    private static long now = 1000;
+
+    private VirtualTime() {}
+
+    static void start() {
+        SystemClock.setManualTime(now);
+        Looper.getMainLooper().runUntilIdle();
+    }
+
+    // lets everything still scheduled run out, then goes back to the real clock
+    static void stop() {
+        advance(60000);
+        SystemClock.useRealTime();
+    }
+
+    static long now() {
+        return now;
+    }
+
+    // one millisecond at a time, so a message posted by another runs at its own due time
+    static void advance(long millis) {
+        Looper.getMainLooper().runUntilIdle();
+        for (long i = 0; i < millis; i++) {
+            now++;
+            SystemClock.setManualTime(now);
+            Looper.getMainLooper().runUntilIdle();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.megster.cordova.ble.central;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * Collects the results of the operations of an executeBatch call, so many GATT operations
+ * cost a single round trip over the Cordova bridge. Each operation gets its own CallbackContext
+ * which records the result instead of sending it to JavaScript.
+ */
+class BLEBatch {
+    private static final String TAG = "BLEBatch";
+
+    private CallbackContext callbackContext;
+    private JSONObject[] results;
+    private boolean stream;
+    private int remaining;
+    private int errors = 0;
+
+    public BLEBatch(CallbackContext callbackContext, int size, boolean stream) {
+        this.callbackContext = callbackContext;
+        this.results = new JSONObject[size];
+        this.stream = stream;
+        this.remaining = size;
+    }
+
+    public CallbackContext callbackFor(final int index, final String op, final String macAddress) {
+        return new CallbackContext(callbackContext.getCallbackId(), null) {
+            @Override
+            public void sendPluginResult(PluginResult pluginResult) {
+                if (pluginResult.getStatus() != PluginResult.Status.NO_RESULT.ordinal()) {
+                    operationCompleted(index, op, macAddress, pluginResult);
+                }
+            }
+        };
+    }
+
+    private void operationCompleted(int index, String op, String macAddress, PluginResult pluginResult) {
+        synchronized(this) {
+            if (results[index] != null) {
+                return; // already answered
+            }
+
+            JSONObject result = new JSONObject();
+            try {
+                result.put("index", index);
+                result.put("op", op);
+                result.put("id", macAddress);
+                if (pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+                    result.put("status", "ok");
+                    result.put("value", decodeMessage(pluginResult));
+                } else {
+                    result.put("status", "error");
+                    result.put("error", decodeMessage(pluginResult));
+                    errors++;
+                }
+            } catch (JSONException e) {
+                LOG.e(TAG, "Failed to record batch result", e);
+            }
+            results[index] = result;
+            remaining--;
+
+            if (stream) {
+                PluginResult streamResult = new PluginResult(PluginResult.Status.OK, result);
+                streamResult.setKeepCallback(true);
+                callbackContext.sendPluginResult(streamResult);
+            }
+
+            if (remaining == 0) {
+                sendComplete();
+            }
+        }
+    }
+
+    // all operations were answered
+    private void sendComplete() {
+        if (stream) {
+            JSONObject summary = new JSONObject();
+            try {
+                summary.put("status", "complete");
+                summary.put("results", results.length);
+                summary.put("errors", errors);
+            } catch (JSONException e) { // this shouldn't happen
+                e.printStackTrace();
+            }
+            callbackContext.success(summary);
+        } else {
+            JSONArray array = new JSONArray();
+            for (JSONObject result : results) {
+                array.put(result);
+            }
+            callbackContext.success(array);
+        }
+    }
+
+    // ArrayBuffers use the same nested encoding as Peripheral.byteArrayToJSON
+    private Object decodeMessage(PluginResult pluginResult) throws JSONException {
+        if (pluginResult.getMessageType() == PluginResult.MESSAGE_TYPE_ARRAYBUFFER) {
+            JSONObject object = new JSONObject();
+            object.put("CDVType", "ArrayBuffer");
+            object.put("data", pluginResult.getMessage());
+            return object;
+        }
+        return new JSONTokener(pluginResult.getMessage()).nextValue();
+    }
+}
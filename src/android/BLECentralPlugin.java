@@ -40,6 +40,7 @@ import android.os.Handler;
 import android.os.Build;
 
 import android.provider.Settings;
+import android.util.Base64;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaArgs;
 import org.apache.cordova.CordovaPlugin;
@@ -50,6 +51,9 @@ import org.json.JSONArray;
 import org.json.JSONObject;
 import org.json.JSONException;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.*;
 
 import static android.bluetooth.BluetoothDevice.DEVICE_TYPE_DUAL;
@@ -78,6 +82,17 @@ public class BLECentralPlugin extends CordovaPlugin {
     private static final String DISCONNECT = "disconnect";
 
     private static final String QUEUE_CLEANUP = "queueCleanup";
+    private static final String SET_COMMAND_TIMEOUTS = "setCommandTimeouts";
+    private static final String GET_TIMEOUT_COUNTS = "getTimeoutCounts";
+    private static final String GET_STATS = "getStats";
+
+    // recording notifications to file
+    private static final String START_RECORDING = "startRecording";
+    private static final String STOP_RECORDING = "stopRecording";
+    private static final String READ_RECORDING = "readRecording";
+    private static final String DELETE_RECORDING = "deleteRecording";
+    private static final String RECORDINGS_DIRECTORY = "ble-recordings";
+    private static final int MAX_RECORDING_CHUNK = 1024 * 1024;
     private static final String SET_PIN = "setPin";
 
     private static final String REQUEST_MTU = "requestMtu";
@@ -90,11 +105,29 @@ public class BLECentralPlugin extends CordovaPlugin {
     private static final String READ = "read";
     private static final String WRITE = "write";
     private static final String WRITE_WITHOUT_RESPONSE = "writeWithoutResponse";
+    private static final String WRITE_CHUNKED = "writeChunked";
+    private static final String WRITE_CHUNKED_WITHOUT_RESPONSE = "writeChunkedWithoutResponse";
+    private static final String RELIABLE_WRITE = "reliableWrite";
+
+    private static final String START_WRITE_STREAM = "startWriteStream";
+    private static final String WRITE_STREAM = "writeStream";
+    private static final String STOP_WRITE_STREAM = "stopWriteStream";
+
+    private static final String EXECUTE_BATCH = "executeBatch";
 
     private static final String READ_RSSI = "readRSSI";
 
+    private static final String READ_DESCRIPTOR = "readDescriptor";
+    private static final String WRITE_DESCRIPTOR = "writeDescriptor";
+
+    // command priorities
+    private static final String PRIORITY_CONTROL = "control";
+    private static final String PRIORITY_BULK = "bulk";
+
     private static final String START_NOTIFICATION = "startNotification"; // register for characteristic notification
     private static final String STOP_NOTIFICATION = "stopNotification"; // remove characteristic notification
+    private static final String START_NOTIFICATIONS = "startNotifications"; // subscribe to many characteristics at once
+    private static final String ACKNOWLEDGE_NOTIFICATIONS = "acknowledgeNotifications"; // credit for buffered notifications
 
     private static final String IS_ENABLED = "isEnabled";
     private static final String IS_CONNECTED  = "isConnected";
@@ -137,6 +170,7 @@ public class BLECentralPlugin extends CordovaPlugin {
 
     // scan options
     boolean reportDuplicates = false;
+    boolean binaryAdvertising = false;
 
     private static final int REQUEST_ACCESS_LOCATION = 2;
     private static final int REQUEST_BLUETOOTH_SCAN = 3;
@@ -155,6 +189,9 @@ public class BLECentralPlugin extends CordovaPlugin {
 
     public void onDestroy() {
         removeStateListener();
+        for (Peripheral peripheral : peripherals.values()) {
+            peripheral.stopRecordings();
+        }
     }
 
     public void onReset() {
@@ -205,12 +242,16 @@ public class BLECentralPlugin extends CordovaPlugin {
             }
             case (CONNECT): {
                 String macAddress = args.getString(0);
-                connect(callbackContext, macAddress);
+                JSONObject options = args.optJSONObject(1);
+                boolean binary = options != null && options.optBoolean("binaryAdvertising", false);
+                connect(callbackContext, macAddress, binary);
                 break;
             }
             case (AUTOCONNECT): {
                 String macAddress = args.getString(0);
-                autoConnect(callbackContext, macAddress);
+                JSONObject options = args.optJSONObject(1);
+                boolean binary = options != null && options.optBoolean("binaryAdvertising", false);
+                autoConnect(callbackContext, macAddress, binary);
                 break;
             }
             case (DISCONNECT): {
@@ -223,6 +264,53 @@ public class BLECentralPlugin extends CordovaPlugin {
                 queueCleanup(callbackContext, macAddress);
                 break;
             }
+            case (SET_COMMAND_TIMEOUTS): {
+                String macAddress = args.getString(0);
+                JSONObject timeouts = args.getJSONObject(1);
+                setCommandTimeouts(callbackContext, macAddress, timeouts);
+                break;
+            }
+            case (GET_TIMEOUT_COUNTS): {
+                String macAddress = args.getString(0);
+                getTimeoutCounts(callbackContext, macAddress);
+                break;
+            }
+            case (GET_STATS): {
+                String macAddress = args.getString(0);
+                boolean reset = args.optBoolean(1);
+                getStats(callbackContext, macAddress, reset);
+                break;
+            }
+            case (START_RECORDING): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                String name = args.optString(3);
+                if (name.isEmpty() || name.equals("null")) {
+                    name = macAddress.replace(":", "") + "-" + System.currentTimeMillis() + ".blerec";
+                }
+                startRecording(callbackContext, macAddress, serviceUUID, characteristicUUID, name);
+                break;
+            }
+            case (STOP_RECORDING): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                stopRecording(callbackContext, macAddress, serviceUUID, characteristicUUID);
+                break;
+            }
+            case (READ_RECORDING): {
+                String name = args.getString(0);
+                long offset = args.optLong(1);
+                int length = args.isNull(2) ? MAX_RECORDING_CHUNK : args.optInt(2);
+                readRecording(callbackContext, name, offset, length);
+                break;
+            }
+            case (DELETE_RECORDING): {
+                String name = args.getString(0);
+                deleteRecording(callbackContext, name);
+                break;
+            }
             case (SET_PIN): {
                 String pin = args.getString(0);
                 setPin(callbackContext, pin);
@@ -250,12 +338,49 @@ public class BLECentralPlugin extends CordovaPlugin {
                 String macAddress = args.getString(0);
                 UUID serviceUUID = uuidFromString(args.getString(1));
                 UUID characteristicUUID = uuidFromString(args.getString(2));
-                read(callbackContext, macAddress, serviceUUID, characteristicUUID);
+                int priority = parsePriority(args.optString(3));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                read(callbackContext, macAddress, serviceUUID, characteristicUUID, priority);
+                break;
+            }
+            case (READ_DESCRIPTOR): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                UUID descriptorUUID = uuidFromString(args.getString(3));
+                int priority = parsePriority(args.optString(4));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                readDescriptor(callbackContext, macAddress, serviceUUID, characteristicUUID, descriptorUUID, priority);
+                break;
+            }
+            case (WRITE_DESCRIPTOR): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                UUID descriptorUUID = uuidFromString(args.getString(3));
+                byte[] data = args.getArrayBuffer(4);
+                int priority = parsePriority(args.optString(5));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                writeDescriptor(callbackContext, macAddress, serviceUUID, characteristicUUID, descriptorUUID, data, priority);
                 break;
             }
             case (READ_RSSI): {
                 String macAddress = args.getString(0);
-                readRSSI(callbackContext, macAddress);
+                int priority = parsePriority(args.optString(1));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                readRSSI(callbackContext, macAddress, priority);
                 break;
             }
             case (WRITE): {
@@ -264,7 +389,12 @@ public class BLECentralPlugin extends CordovaPlugin {
                 UUID characteristicUUID = uuidFromString(args.getString(2));
                 byte[] data = args.getArrayBuffer(3);
                 int type = BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT;
-                write(callbackContext, macAddress, serviceUUID, characteristicUUID, data, type);
+                int priority = parsePriority(args.optString(4));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                write(callbackContext, macAddress, serviceUUID, characteristicUUID, data, type, priority);
                 break;
             }
             case (WRITE_WITHOUT_RESPONSE): {
@@ -273,14 +403,83 @@ public class BLECentralPlugin extends CordovaPlugin {
                 UUID characteristicUUID = uuidFromString(args.getString(2));
                 byte[] data = args.getArrayBuffer(3);
                 int type = BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
-                write(callbackContext, macAddress, serviceUUID, characteristicUUID, data, type);
+                int priority = parsePriority(args.optString(4));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                write(callbackContext, macAddress, serviceUUID, characteristicUUID, data, type, priority);
+                break;
+            }
+            case (WRITE_CHUNKED):
+            case (WRITE_CHUNKED_WITHOUT_RESPONSE): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                byte[] data = args.getArrayBuffer(3);
+                int type = action.equals(WRITE_CHUNKED) ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+                int priority = parsePriority(args.optString(4));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                writeChunked(callbackContext, macAddress, serviceUUID, characteristicUUID, data, type, priority);
+                break;
+            }
+            case (RELIABLE_WRITE): {
+                String macAddress = args.getString(0);
+                JSONArray writes = args.getJSONArray(1);
+                int priority = parsePriority(args.optString(2));
+                if (priority < 0) {
+                    callbackContext.error("priority must be one of: control | bulk");
+                    break;
+                }
+                reliableWrite(callbackContext, macAddress, writes, priority);
+                break;
+            }
+            case (START_WRITE_STREAM): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                startWriteStream(callbackContext, macAddress, serviceUUID, characteristicUUID);
+                break;
+            }
+            case (WRITE_STREAM): {
+                String macAddress = args.getString(0);
+                byte[] data = args.getArrayBuffer(1);
+                writeStream(callbackContext, macAddress, data);
+                break;
+            }
+            case (STOP_WRITE_STREAM): {
+                String macAddress = args.getString(0);
+                stopWriteStream(callbackContext, macAddress);
+                break;
+            }
+            case (EXECUTE_BATCH): {
+                JSONArray operations = args.getJSONArray(0);
+                JSONObject options = args.optJSONObject(1);
+                boolean stream = options != null && options.optBoolean("stream", false);
+                executeBatch(callbackContext, operations, stream);
                 break;
             }
             case (START_NOTIFICATION): {
                 String macAddress = args.getString(0);
                 UUID serviceUUID = uuidFromString(args.getString(1));
                 UUID characteristicUUID = uuidFromString(args.getString(2));
-                registerNotifyCallback(callbackContext, macAddress, serviceUUID, characteristicUUID);
+                NotificationOptions options;
+                try {
+                    options = NotificationOptions.fromJSON(args.optJSONObject(3));
+                } catch (IllegalArgumentException e) {
+                    callbackContext.error(e.getMessage());
+                    break;
+                }
+                registerNotifyCallback(callbackContext, macAddress, serviceUUID, characteristicUUID, options);
+                break;
+            }
+            case (START_NOTIFICATIONS): {
+                String macAddress = args.getString(0);
+                JSONArray subscriptions = args.getJSONArray(1);
+                registerNotifyCallbacks(callbackContext, macAddress, subscriptions);
                 break;
             }
             case (STOP_NOTIFICATION): {
@@ -290,6 +489,14 @@ public class BLECentralPlugin extends CordovaPlugin {
                 removeNotifyCallback(callbackContext, macAddress, serviceUUID, characteristicUUID);
                 break;
             }
+            case (ACKNOWLEDGE_NOTIFICATIONS): {
+                String macAddress = args.getString(0);
+                UUID serviceUUID = uuidFromString(args.getString(1));
+                UUID characteristicUUID = uuidFromString(args.getString(2));
+                int count = args.getInt(3);
+                acknowledgeNotifications(callbackContext, macAddress, serviceUUID, characteristicUUID, count);
+                break;
+            }
             case (IS_ENABLED): {
                 sendBluetoothStateChange(bluetoothAdapter.getState());
                 PluginResult result = new PluginResult(PluginResult.Status.OK);
@@ -348,6 +555,7 @@ public class BLECentralPlugin extends CordovaPlugin {
 
                 resetScanOptions();
                 this.reportDuplicates = options.optBoolean("reportDuplicates", false);
+                this.binaryAdvertising = options.optBoolean("binaryAdvertising", false);
                 ScanSettings.Builder scanSettings = new ScanSettings.Builder();
 
                 switch (options.optString("scanMode", "")) {
@@ -793,7 +1001,7 @@ public class BLECentralPlugin extends CordovaPlugin {
         }
     }
 
-    private void connect(CallbackContext callbackContext, String macAddress) {
+    private void connect(CallbackContext callbackContext, String macAddress, boolean binaryAdvertising) {
         if (!peripherals.containsKey(macAddress) && BluetoothAdapter.checkBluetoothAddress(macAddress)) {
             BluetoothDevice device = BLECentralPlugin.this.bluetoothAdapter.getRemoteDevice(macAddress);
             Peripheral peripheral = new Peripheral(device);
@@ -802,6 +1010,7 @@ public class BLECentralPlugin extends CordovaPlugin {
 
         Peripheral peripheral = peripherals.get(macAddress);
         if (peripheral != null) {
+            peripheral.setBinaryResults(binaryAdvertising);
             peripheral.connect(callbackContext, cordova.getActivity(), false);
         } else {
             callbackContext.error("Peripheral " + macAddress + " not found.");
@@ -809,7 +1018,7 @@ public class BLECentralPlugin extends CordovaPlugin {
 
     }
 
-    private void autoConnect(CallbackContext callbackContext, String macAddress) {
+    private void autoConnect(CallbackContext callbackContext, String macAddress, boolean binaryAdvertising) {
         Peripheral peripheral = peripherals.get(macAddress);
 
         // allow auto-connect to connect to devices without scanning
@@ -824,6 +1033,7 @@ public class BLECentralPlugin extends CordovaPlugin {
             }
         }
 
+        peripheral.setBinaryResults(binaryAdvertising);
         peripheral.connect(callbackContext, cordova.getActivity(), true);
 
     }
@@ -849,6 +1059,146 @@ public class BLECentralPlugin extends CordovaPlugin {
         callbackContext.success();
     }
 
+    // timeouts is keyed by command name, e.g. {"read": 3000, "write": 5000}, 0 disables the timeout
+    private void setCommandTimeouts(CallbackContext callbackContext, String macAddress, JSONObject timeouts) throws JSONException {
+        Peripheral peripheral = peripherals.get(macAddress);
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        for (int type : BLECommand.TYPES) {
+            String name = BLECommand.typeName(type);
+            if (timeouts.has(name)) {
+                long timeout = timeouts.getLong(name);
+                if (timeout < 0) {
+                    callbackContext.error(name + " timeout must be 0 or more milliseconds");
+                    return;
+                }
+                peripheral.setCommandTimeout(type, timeout);
+            }
+        }
+
+        callbackContext.success(peripheral.getCommandTimeoutsJSON());
+    }
+
+    private void getTimeoutCounts(CallbackContext callbackContext, String macAddress) {
+        Peripheral peripheral = peripherals.get(macAddress);
+        if (peripheral != null) {
+            callbackContext.success(peripheral.getTimeoutCountsJSON());
+        } else {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+        }
+    }
+
+    private void getStats(CallbackContext callbackContext, String macAddress, boolean reset) {
+        Peripheral peripheral = peripherals.get(macAddress);
+        if (peripheral != null) {
+            callbackContext.success(peripheral.getStatsJSON(reset));
+        } else {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+        }
+    }
+
+    private void startRecording(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID, String name) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        File file = recordingFile(name);
+        if (file == null) {
+            callbackContext.error("Invalid recording name " + name);
+            return;
+        }
+
+        peripheral.startRecording(callbackContext, serviceUUID, characteristicUUID, file);
+
+    }
+
+    private void stopRecording(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        peripheral.stopRecording(callbackContext, serviceUUID, characteristicUUID);
+
+    }
+
+    // a chunk of a recording as ArrayBuffer, empty at the end of the file
+    private void readRecording(CallbackContext callbackContext, String name, long offset, int length) {
+
+        File file = recordingFile(name);
+        if (file == null || !file.exists()) {
+            callbackContext.error("Recording " + name + " not found.");
+            return;
+        }
+
+        if (offset < 0 || length < 0) {
+            callbackContext.error("offset and length must not be negative");
+            return;
+        }
+
+        try {
+            RandomAccessFile input = new RandomAccessFile(file, "r");
+            try {
+                long available = Math.max(0, input.length() - offset);
+                byte[] data = new byte[(int) Math.min(available, Math.min(length, MAX_RECORDING_CHUNK))];
+                input.seek(offset);
+                input.readFully(data);
+                callbackContext.success(data);
+            } finally {
+                input.close();
+            }
+        } catch (IOException e) {
+            LOG.e(TAG, "Failed to read recording", e);
+            callbackContext.error("Failed to read recording " + name + ": " + e.getMessage());
+        }
+
+    }
+
+    private void deleteRecording(CallbackContext callbackContext, String name) {
+
+        File file = recordingFile(name);
+        if (file == null || !file.exists()) {
+            callbackContext.error("Recording " + name + " not found.");
+            return;
+        }
+
+        if (file.delete()) {
+            callbackContext.success();
+        } else {
+            callbackContext.error("Failed to delete recording " + name);
+        }
+
+    }
+
+    // recordings live in the app's files directory, names can't point anywhere else
+    private File recordingFile(String name) {
+        if (name.isEmpty() || name.startsWith(".") || name.contains("/") || name.contains("\\")) {
+            return null;
+        }
+
+        File directory = new File(cordova.getActivity().getFilesDir(), RECORDINGS_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOG.e(TAG, "Failed to create " + directory);
+            return null;
+        }
+        return new File(directory, name);
+    }
+
     BroadcastReceiver broadCastReceiver;
     private void setPin(CallbackContext callbackContext, final String pin) {
 
@@ -922,7 +1272,7 @@ public class BLECentralPlugin extends CordovaPlugin {
         }
     }
 
-    private void read(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID) {
+    private void read(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID, int priority) {
 
         Peripheral peripheral = peripherals.get(macAddress);
 
@@ -937,11 +1287,31 @@ public class BLECentralPlugin extends CordovaPlugin {
         }
 
         //peripheral.readCharacteristic(callbackContext, serviceUUID, characteristicUUID);
-        peripheral.queueRead(callbackContext, serviceUUID, characteristicUUID);
+        peripheral.queueRead(callbackContext, serviceUUID, characteristicUUID, priority);
+
+    }
+
+    private void readDescriptor(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID,
+                                UUID descriptorUUID, int priority) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        peripheral.queueReadDescriptor(callbackContext, serviceUUID, characteristicUUID, descriptorUUID, priority);
 
     }
 
-    private void readRSSI(CallbackContext callbackContext, String macAddress) {
+    private void writeDescriptor(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID,
+                                 UUID descriptorUUID, byte[] data, int priority) {
 
         Peripheral peripheral = peripherals.get(macAddress);
 
@@ -954,11 +1324,29 @@ public class BLECentralPlugin extends CordovaPlugin {
             callbackContext.error("Peripheral " + macAddress + " is not connected.");
             return;
         }
-        peripheral.queueReadRSSI(callbackContext);
+
+        peripheral.queueWriteDescriptor(callbackContext, serviceUUID, characteristicUUID, descriptorUUID, data, priority);
+
+    }
+
+    private void readRSSI(CallbackContext callbackContext, String macAddress, int priority) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+        peripheral.queueReadRSSI(callbackContext, priority);
     }
 
     private void write(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID,
-                       byte[] data, int writeType) {
+                       byte[] data, int writeType, int priority) {
 
         Peripheral peripheral = peripherals.get(macAddress);
 
@@ -973,11 +1361,202 @@ public class BLECentralPlugin extends CordovaPlugin {
         }
 
         //peripheral.writeCharacteristic(callbackContext, serviceUUID, characteristicUUID, data, writeType);
-        peripheral.queueWrite(callbackContext, serviceUUID, characteristicUUID, data, writeType);
+        peripheral.queueWrite(callbackContext, serviceUUID, characteristicUUID, data, writeType, priority);
+
+    }
+
+    private void writeChunked(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID,
+                              byte[] data, int writeType, int priority) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        peripheral.queueChunkedWrite(callbackContext, serviceUUID, characteristicUUID, data, writeType, priority);
+
+    }
+
+    // writes is an array of {service, characteristic, value} with Base64 encoded values
+    private void reliableWrite(CallbackContext callbackContext, String macAddress, JSONArray writes, int priority) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        if (writes.length() == 0) {
+            callbackContext.error("Reliable write needs at least one write");
+            return;
+        }
+
+        List<BLECommand> commands = new ArrayList<>();
+        for (int i = 0; i < writes.length(); i++) {
+            JSONObject write = writes.optJSONObject(i);
+            if (write == null) {
+                callbackContext.error("Invalid write at index " + i + ", expected {service, characteristic, value}");
+                return;
+            }
+            String service = write.optString("service", null);
+            String characteristic = write.optString("characteristic", null);
+            String value = write.optString("value", null);
+            if (service == null || characteristic == null || value == null) {
+                callbackContext.error("Invalid write at index " + i + ", service, characteristic and value are required");
+                return;
+            }
+            try {
+                UUID serviceUUID = uuidFromString(service);
+                UUID characteristicUUID = uuidFromString(characteristic);
+                byte[] data = Base64.decode(value, Base64.DEFAULT);
+                commands.add(new BLECommand(null, serviceUUID, characteristicUUID, data, BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT));
+            } catch (IllegalArgumentException e) { // a malformed UUID or value
+                callbackContext.error("Invalid write at index " + i + ", " + e.getMessage());
+                return;
+            }
+        }
+
+        peripheral.queueReliableWrite(callbackContext, commands, priority);
+
+    }
+
+    private void startWriteStream(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        peripheral.startWriteStream(callbackContext, serviceUUID, characteristicUUID);
+
+    }
+
+    private void writeStream(CallbackContext callbackContext, String macAddress, byte[] data) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        peripheral.writeStream(callbackContext, data);
+
+    }
+
+    private void stopWriteStream(CallbackContext callbackContext, String macAddress) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found.");
+            return;
+        }
+
+        peripheral.stopWriteStream(callbackContext);
+
+    }
+
+    // Queue many operations with one call. Each operation is {op, id, service, characteristic, value, priority}
+    // where op is read | readRSSI | write | writeWithoutResponse and value is Base64 encoded.
+    // The whole batch is rejected if an operation is invalid, otherwise each operation gets a result.
+    private void executeBatch(CallbackContext callbackContext, JSONArray operations, boolean stream) {
+
+        if (operations.length() == 0) {
+            callbackContext.success(new JSONArray());
+            return;
+        }
 
+        // validate everything before queuing anything
+        for (int i = 0; i < operations.length(); i++) {
+            JSONObject operation = operations.optJSONObject(i);
+            if (operation == null || operation.optString("id", "").isEmpty()) {
+                callbackContext.error("Invalid operation at index " + i);
+                return;
+            }
+
+            String op = operation.optString("op", "");
+            boolean isWrite = op.equals(WRITE) || op.equals(WRITE_WITHOUT_RESPONSE);
+            if (!op.equals(READ) && !op.equals(READ_RSSI) && !isWrite) {
+                callbackContext.error("op at index " + i + " must be one of: read | readRSSI | write | writeWithoutResponse");
+                return;
+            }
+            if (!op.equals(READ_RSSI) && (!operation.has("service") || !operation.has("characteristic"))) {
+                callbackContext.error("Operation at index " + i + " is missing service or characteristic");
+                return;
+            }
+            if (isWrite && !operation.has("value")) {
+                callbackContext.error("Operation at index " + i + " is missing value");
+                return;
+            }
+            if (parsePriority(operation.optString("priority", "")) < 0) {
+                callbackContext.error("priority must be one of: control | bulk");
+                return;
+            }
+        }
+
+        BLEBatch batch = new BLEBatch(callbackContext, operations.length(), stream);
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+
+        for (int i = 0; i < operations.length(); i++) {
+            JSONObject operation = operations.optJSONObject(i);
+            String op = operation.optString("op");
+            String macAddress = operation.optString("id");
+            int priority = parsePriority(operation.optString("priority", ""));
+            CallbackContext operationCallback = batch.callbackFor(i, op, macAddress);
+
+            try {
+                if (op.equals(READ_RSSI)) {
+                    readRSSI(operationCallback, macAddress, priority);
+                    continue;
+                }
+
+                UUID serviceUUID = uuidFromString(operation.getString("service"));
+                UUID characteristicUUID = uuidFromString(operation.getString("characteristic"));
+
+                if (op.equals(READ)) {
+                    read(operationCallback, macAddress, serviceUUID, characteristicUUID, priority);
+                } else {
+                    byte[] data = Base64.decode(operation.getString("value"), Base64.DEFAULT);
+                    int type = op.equals(WRITE) ? BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT : BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE;
+                    write(operationCallback, macAddress, serviceUUID, characteristicUUID, data, type, priority);
+                }
+            } catch (JSONException | IllegalArgumentException e) {
+                operationCallback.error("Invalid operation: " + e.getMessage());
+            }
+        }
     }
 
-    private void registerNotifyCallback(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID) {
+    private void registerNotifyCallback(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID,
+                                        NotificationOptions options) {
 
         Peripheral peripheral = peripherals.get(macAddress);
         if (peripheral != null) {
@@ -988,7 +1567,7 @@ public class BLECentralPlugin extends CordovaPlugin {
             }
 
             //peripheral.setOnDataCallback(serviceUUID, characteristicUUID, callbackContext);
-            peripheral.queueRegisterNotifyCallback(callbackContext, serviceUUID, characteristicUUID);
+            peripheral.queueRegisterNotifyCallback(callbackContext, serviceUUID, characteristicUUID, options);
 
         } else {
 
@@ -998,6 +1577,61 @@ public class BLECentralPlugin extends CordovaPlugin {
 
     }
 
+    private void registerNotifyCallbacks(CallbackContext callbackContext, String macAddress, JSONArray subscriptions) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+
+        if (peripheral == null) {
+            callbackContext.error("Peripheral " + macAddress + " not found");
+            return;
+        }
+
+        if (!peripheral.isConnected()) {
+            callbackContext.error("Peripheral " + macAddress + " is not connected.");
+            return;
+        }
+
+        if (subscriptions.length() == 0) {
+            callbackContext.error("No characteristics to subscribe to");
+            return;
+        }
+
+        // validate everything before queuing anything
+        UUID[] serviceUUIDs = new UUID[subscriptions.length()];
+        UUID[] characteristicUUIDs = new UUID[subscriptions.length()];
+        for (int i = 0; i < subscriptions.length(); i++) {
+            JSONObject subscription = subscriptions.optJSONObject(i);
+            if (subscription == null) {
+                callbackContext.error("Invalid subscription at index " + i + ", expected {service, characteristic}");
+                return;
+            }
+            String service = subscription.optString("service", null);
+            String characteristic = subscription.optString("characteristic", null);
+            if (service == null || characteristic == null) {
+                callbackContext.error("Invalid subscription at index " + i + ", service and characteristic are required");
+                return;
+            }
+            try {
+                serviceUUIDs[i] = uuidFromString(service);
+                characteristicUUIDs[i] = uuidFromString(characteristic);
+            } catch (IllegalArgumentException e) { // a malformed UUID
+                callbackContext.error("Invalid subscription at index " + i + ", " + e.getMessage());
+                return;
+            }
+        }
+
+        NotificationGroup group = new NotificationGroup(callbackContext, subscriptions.length());
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+
+        for (int i = 0; i < subscriptions.length(); i++) {
+            peripheral.queueRegisterNotifyCallback(group.subscriptionFor(i), serviceUUIDs[i], characteristicUUIDs[i]);
+        }
+
+    }
+
     private void removeNotifyCallback(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID) {
 
         Peripheral peripheral = peripherals.get(macAddress);
@@ -1018,41 +1652,47 @@ public class BLECentralPlugin extends CordovaPlugin {
 
     }
 
+    private void acknowledgeNotifications(CallbackContext callbackContext, String macAddress, UUID serviceUUID, UUID characteristicUUID, int count) {
+
+        Peripheral peripheral = peripherals.get(macAddress);
+        if (peripheral != null) {
+            peripheral.acknowledgeNotifications(callbackContext, serviceUUID, characteristicUUID, count);
+        } else {
+            callbackContext.error("Peripheral " + macAddress + " not found");
+        }
+
+    }
+
     private final ScanCallback leScanCallback = new ScanCallback() {
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
             super.onScanResult(callbackType, result);
-            BluetoothDevice device = result.getDevice();
-            String address = device.getAddress();
-            boolean alreadyReported = peripherals.containsKey(address) && !peripherals.get(address).isUnscanned();
-
-            if (!alreadyReported) {
-
-                Peripheral peripheral = new Peripheral(device, result.getRssi(), result.getScanRecord().getBytes());
-                peripherals.put(device.getAddress(), peripheral);
-
-                if (discoverCallback != null) {
-                    PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, peripheral.asJSONObject());
-                    pluginResult.setKeepCallback(true);
-                    discoverCallback.sendPluginResult(pluginResult);
-                }
+            Peripheral peripheral = scanned(result);
 
-            } else {
-                Peripheral peripheral = peripherals.get(address);
-                if (peripheral != null) {
-                    peripheral.update(result.getRssi(), result.getScanRecord().getBytes());
-                    if (reportDuplicates && discoverCallback != null) {
-                        PluginResult pluginResult = new PluginResult(PluginResult.Status.OK, peripheral.asJSONObject());
-                        pluginResult.setKeepCallback(true);
-                        discoverCallback.sendPluginResult(pluginResult);
-                    }
-                }
+            if (peripheral != null && discoverCallback != null) {
+                PluginResult pluginResult = peripheral.asPluginResult(binaryAdvertising);
+                pluginResult.setKeepCallback(true);
+                discoverCallback.sendPluginResult(pluginResult);
             }
         }
 
+        // results delayed by reportDelay arrive together and cross the bridge as one array
         @Override
         public void onBatchScanResults(List<ScanResult> results) {
             super.onBatchScanResults(results);
+            List<Peripheral> reported = new ArrayList<Peripheral>(results.size());
+            for (ScanResult result : results) {
+                Peripheral peripheral = scanned(result);
+                if (peripheral != null && !reported.contains(peripheral)) {
+                    reported.add(peripheral);
+                }
+            }
+
+            if (!reported.isEmpty() && discoverCallback != null) {
+                PluginResult pluginResult = Peripheral.asPluginResult(reported, binaryAdvertising);
+                pluginResult.setKeepCallback(true);
+                discoverCallback.sendPluginResult(pluginResult);
+            }
         }
 
         @Override
@@ -1062,6 +1702,30 @@ public class BLECentralPlugin extends CordovaPlugin {
     };
 
 
+    // updates the known peripherals with a scan result, returns the peripheral if it should be reported
+    private Peripheral scanned(ScanResult result) {
+        BluetoothDevice device = result.getDevice();
+        String address = device.getAddress();
+        boolean alreadyReported = peripherals.containsKey(address) && !peripherals.get(address).isUnscanned();
+
+        if (!alreadyReported) {
+
+            Peripheral peripheral = new Peripheral(device, result.getRssi(), result.getScanRecord().getBytes());
+            peripherals.put(device.getAddress(), peripheral);
+            return peripheral;
+
+        } else {
+            Peripheral peripheral = peripherals.get(address);
+            if (peripheral != null) {
+                peripheral.update(result.getRssi(), result.getScanRecord().getBytes());
+                if (reportDuplicates) {
+                    return peripheral;
+                }
+            }
+        }
+        return null;
+    }
+
     private void findLowEnergyDevices(CallbackContext callbackContext, UUID[] serviceUUIDs, int scanSeconds) {
         findLowEnergyDevices(callbackContext, serviceUUIDs, scanSeconds, new ScanSettings.Builder().build() );
     }
@@ -1131,11 +1795,26 @@ public class BLECentralPlugin extends CordovaPlugin {
         return UUIDHelper.uuidFromString(uuid);
     }
 
+    // missing priority defaults to control, returns -1 for an unknown priority
+    private int parsePriority(String priority) {
+        switch (priority) {
+            case "":
+            case "null":
+            case PRIORITY_CONTROL:
+                return BLECommand.PRIORITY_CONTROL;
+            case PRIORITY_BULK:
+                return BLECommand.PRIORITY_BULK;
+            default:
+                return -1;
+        }
+    }
+
     /**
      * Reset the BLE scanning options
      */
     private void resetScanOptions() {
         this.reportDuplicates = false;
+        this.binaryAdvertising = false;
     }
 
     private void initializePeripheralAction(CallbackContext callbackContext) {
@@ -1,7 +1,13 @@
 package com.megster.cordova.ble.central;
 
+import android.bluetooth.BluetoothGattCharacteristic;
+
 import org.apache.cordova.CallbackContext;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 
 /**
@@ -14,14 +20,57 @@ class BLECommand {
     public static int REGISTER_NOTIFY = 10001;
     public static int REMOVE_NOTIFY = 10002;
     public static int READ_RSSI = 10003;
+    public static int WRITE_STREAM = 10004;
+    public static int RELIABLE_WRITE = 10005;
+    public static int READ_DESCRIPTOR = 10006;
+    public static int WRITE_DESCRIPTOR = 10007;
     // BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE
     // BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT
 
+    // Priorities, the control lane is always drained before the bulk lane
+    public static final int PRIORITY_CONTROL = 0;
+    public static final int PRIORITY_BULK = 1;
+
+    // Deadlines in milliseconds for the peripheral to answer, 0 disables the timeout
+    public static final long DEFAULT_TIMEOUT = 5000;
+    public static final long READ_RSSI_TIMEOUT = 2000;
+
+    // All types, used to walk per type settings and counters
+    public static final int[] TYPES = {
+        READ,
+        BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT,
+        BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE,
+        REGISTER_NOTIFY,
+        REMOVE_NOTIFY,
+        READ_RSSI,
+        WRITE_STREAM,
+        RELIABLE_WRITE,
+        READ_DESCRIPTOR,
+        WRITE_DESCRIPTOR
+    };
+
     private CallbackContext callbackContext;
     private UUID serviceUUID;
     private UUID characteristicUUID;
+    private UUID descriptorUUID;
+    private NotificationOptions notificationOptions;
     private byte[] data;
     private int type;
+    private long timeout;
+    private int priority = PRIORITY_CONTROL;
+    // writes larger than chunkSize are sent as consecutive fragments, offset is the next one to send
+    private int chunkSize = 0;
+    private int offset = 0;
+    private int fragmentRetries = 0;
+    // the writes of a reliable write transaction, writeIndex is the next one to send
+    private List<BLECommand> writes;
+    private int writeIndex = 0;
+    // callbacks of identical commands that are answered by this one
+    private List<CallbackContext> coalescedCallbacks;
+    // System.nanoTime() when the command was queued and dispatched, for the stats
+    private long queuedAt;
+    private long dispatchedAt;
+    private volatile boolean answered = false;
 
 
     public BLECommand(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, int type) {
@@ -39,6 +88,13 @@ class BLECommand {
         this.type = type;
     }
 
+    // reliable write transaction, each write is a WRITE_TYPE_DEFAULT command
+    public BLECommand(CallbackContext callbackContext, List<BLECommand> writes, int type) {
+        this.callbackContext = callbackContext;
+        this.writes = writes;
+        this.type = type;
+    }
+
     public int getType() {
         return type;
     }
@@ -47,6 +103,35 @@ class BLECommand {
         return callbackContext;
     }
 
+    // the stats replace the callback with one that counts the result
+    void setCallbackContext(CallbackContext callbackContext) {
+        this.callbackContext = callbackContext;
+    }
+
+    public long getQueuedAt() {
+        return queuedAt;
+    }
+
+    public void setQueuedAt(long queuedAt) {
+        this.queuedAt = queuedAt;
+    }
+
+    public long getDispatchedAt() {
+        return dispatchedAt;
+    }
+
+    public void setDispatchedAt(long dispatchedAt) {
+        this.dispatchedAt = dispatchedAt;
+    }
+
+    public boolean isAnswered() {
+        return answered;
+    }
+
+    public void setAnswered(boolean answered) {
+        this.answered = answered;
+    }
+
     public UUID getServiceUUID() {
         return serviceUUID;
     }
@@ -55,7 +140,152 @@ class BLECommand {
         return characteristicUUID;
     }
 
+    public UUID getDescriptorUUID() {
+        return descriptorUUID;
+    }
+
+    public void setDescriptorUUID(UUID descriptorUUID) {
+        this.descriptorUUID = descriptorUUID;
+    }
+
+    public NotificationOptions getNotificationOptions() {
+        return notificationOptions;
+    }
+
+    public void setNotificationOptions(NotificationOptions notificationOptions) {
+        this.notificationOptions = notificationOptions;
+    }
+
     public byte[] getData() {
         return data;
     }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public boolean isChunked() {
+        return chunkSize > 0;
+    }
+
+    // the data to write next, all of it unless the write is chunked
+    public byte[] nextFragment() {
+        if (chunkSize <= 0) {
+            return data;
+        }
+        int end = Math.min(offset + chunkSize, data.length);
+        byte[] fragment = Arrays.copyOfRange(data, offset, end);
+        offset = end;
+        return fragment;
+    }
+
+    public boolean hasNextFragment() {
+        return chunkSize > 0 && offset < data.length;
+    }
+
+    // the stack buffer was full, returns the number of consecutive retries of the fragment
+    public int retryFragment() {
+        return ++fragmentRetries;
+    }
+
+    public void fragmentWritten() {
+        fragmentRetries = 0;
+    }
+
+    public BLECommand nextWrite() {
+        return writes.get(writeIndex++);
+    }
+
+    public boolean hasNextWrite() {
+        return writes != null && writeIndex < writes.size();
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public boolean isSameRead(UUID serviceUUID, UUID characteristicUUID) {
+        return type == READ && this.serviceUUID.equals(serviceUUID) && this.characteristicUUID.equals(characteristicUUID);
+    }
+
+    // true if the command can change the value of the characteristic
+    public boolean isWriteTo(UUID serviceUUID, UUID characteristicUUID) {
+        if (type == RELIABLE_WRITE) {
+            for (BLECommand write : writes) {
+                if (write.isWriteTo(serviceUUID, characteristicUUID)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        boolean write = type == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT || type == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE || type == WRITE_STREAM;
+        return write && serviceUUID.equals(this.serviceUUID) && characteristicUUID.equals(this.characteristicUUID);
+    }
+
+    public void coalesce(CallbackContext callbackContext) {
+        if (coalescedCallbacks == null) {
+            coalescedCallbacks = new ArrayList<CallbackContext>();
+        }
+        coalescedCallbacks.add(callbackContext);
+    }
+
+    // returns the coalesced callbacks and forgets them, so each one is answered only once
+    public List<CallbackContext> takeCoalescedCallbacks() {
+        if (coalescedCallbacks == null) {
+            return Collections.emptyList();
+        }
+        List<CallbackContext> callbacks = coalescedCallbacks;
+        coalescedCallbacks = null;
+        return callbacks;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    public static long defaultTimeout(int type) {
+        if (type == READ_RSSI) {
+            return READ_RSSI_TIMEOUT;
+        }
+        return DEFAULT_TIMEOUT;
+    }
+
+    // names match the JavaScript API
+    public static String typeName(int type) {
+        if (type == READ) {
+            return "read";
+        } else if (type == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) {
+            return "write";
+        } else if (type == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
+            return "writeWithoutResponse";
+        } else if (type == REGISTER_NOTIFY) {
+            return "startNotification";
+        } else if (type == REMOVE_NOTIFY) {
+            return "stopNotification";
+        } else if (type == READ_RSSI) {
+            return "readRSSI";
+        } else if (type == WRITE_STREAM) {
+            return "writeStream";
+        } else if (type == RELIABLE_WRITE) {
+            return "reliableWrite";
+        } else if (type == READ_DESCRIPTOR) {
+            return "readDescriptor";
+        } else if (type == WRITE_DESCRIPTOR) {
+            return "writeDescriptor";
+        }
+        return "unknown";
+    }
+
+    @Override
+    public String toString() {
+        return typeName(type) + " " + characteristicUUID;
+    }
 }
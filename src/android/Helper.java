@@ -18,46 +18,33 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import org.json.JSONArray;
 
-public class Helper {
-
-    public static JSONArray decodeProperties(BluetoothGattCharacteristic characteristic) {
-
-        // NOTE: props strings need to be consistent across iOS and Android
-        JSONArray props = new JSONArray();
-        int properties = characteristic.getProperties();
-
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_BROADCAST) != 0x0 ) {
-            props.put("Broadcast");
-        }
-
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_READ) != 0x0 ) {
-            props.put("Read");
-        }
+import java.util.ArrayList;
+import java.util.List;
 
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0x0 ) {
-            props.put("WriteWithoutResponse");
-        }
-
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0x0 ) {
-            props.put("Write");
-        }
-
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0x0 ) {
-            props.put("Notify");
-        }
-
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0x0 ) {
-            props.put("Indicate");
-        }
-
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_SIGNED_WRITE) != 0x0 ) {
-            // Android calls this "write with signature", using iOS name for now
-            props.put("AuthenticateSignedWrites");
-        }
+public class Helper {
 
-        if ((properties & BluetoothGattCharacteristic.PROPERTY_EXTENDED_PROPS) != 0x0 ) {
-            props.put("ExtendedProperties");
-        }
+    // NOTE: props strings need to be consistent across iOS and Android
+    private static final int[] PROPERTY_BITS = {
+        BluetoothGattCharacteristic.PROPERTY_BROADCAST,
+        BluetoothGattCharacteristic.PROPERTY_READ,
+        BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE,
+        BluetoothGattCharacteristic.PROPERTY_WRITE,
+        BluetoothGattCharacteristic.PROPERTY_NOTIFY,
+        BluetoothGattCharacteristic.PROPERTY_INDICATE,
+        BluetoothGattCharacteristic.PROPERTY_SIGNED_WRITE,
+        BluetoothGattCharacteristic.PROPERTY_EXTENDED_PROPS
+    };
+    private static final String[] PROPERTY_NAMES = {
+        "Broadcast",
+        "Read",
+        "WriteWithoutResponse",
+        "Write",
+        "Notify",
+        "Indicate",
+        // Android calls this "write with signature", using iOS name for now
+        "AuthenticateSignedWrites",
+        "ExtendedProperties"
+    };
 
 //      iOS only?
 //
@@ -69,90 +56,105 @@ public class Helper {
 //                [props addObject:@"IndicateEncryptionRequired"];
 //            }
 
-        return props;
-    }
-
-    public static JSONArray decodePermissions(BluetoothGattCharacteristic characteristic) {
-
-        // NOTE: props strings need to be consistent across iOS and Android
-        JSONArray props = new JSONArray();
-        int permissions = characteristic.getPermissions();
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_READ) != 0x0 ) {
-            props.put("Read");
-        }
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE) != 0x0 ) {
-            props.put("Write");
-        }
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED) != 0x0 ) {
-            props.put("ReadEncrypted");
-        }
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED) != 0x0 ) {
-            props.put("WriteEncrypted");
-        }
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED_MITM) != 0x0 ) {
-            props.put("ReadEncryptedMITM");
-        }
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED_MITM) != 0x0 ) {
-            props.put("WriteEncryptedMITM");
-        }
-
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_SIGNED) != 0x0 ) {
-            props.put("WriteSigned");
+    private static final int[] CHARACTERISTIC_PERMISSION_BITS = {
+        BluetoothGattCharacteristic.PERMISSION_READ,
+        BluetoothGattCharacteristic.PERMISSION_WRITE,
+        BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED,
+        BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED,
+        BluetoothGattCharacteristic.PERMISSION_READ_ENCRYPTED_MITM,
+        BluetoothGattCharacteristic.PERMISSION_WRITE_ENCRYPTED_MITM,
+        BluetoothGattCharacteristic.PERMISSION_WRITE_SIGNED,
+        BluetoothGattCharacteristic.PERMISSION_WRITE_SIGNED_MITM
+    };
+    private static final int[] DESCRIPTOR_PERMISSION_BITS = {
+        BluetoothGattDescriptor.PERMISSION_READ,
+        BluetoothGattDescriptor.PERMISSION_WRITE,
+        BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED,
+        BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED,
+        BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED_MITM,
+        BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED_MITM,
+        BluetoothGattDescriptor.PERMISSION_WRITE_SIGNED,
+        BluetoothGattDescriptor.PERMISSION_WRITE_SIGNED_MITM
+    };
+    private static final String[] PERMISSION_NAMES = {
+        "Read",
+        "Write",
+        "ReadEncrypted",
+        "WriteEncrypted",
+        "ReadEncryptedMITM",
+        "WriteEncryptedMITM",
+        "WriteSigned",
+        "WriteSignedMITM"
+    };
+
+    // properties fit in 8 bits, every combination is decoded up front. The decoded names are
+    // private and never change, each call gets its own JSONArray
+    private static final String[][] decodedProperties = new String[256][];
+    // permission combinations are decoded the first time they are seen
+    private static final DecodeCache characteristicPermissions = new DecodeCache(CHARACTERISTIC_PERMISSION_BITS, PERMISSION_NAMES);
+    private static final DecodeCache descriptorPermissions = new DecodeCache(DESCRIPTOR_PERMISSION_BITS, PERMISSION_NAMES);
+
+    static {
+        for (int properties = 0; properties < decodedProperties.length; properties++) {
+            decodedProperties[properties] = decode(properties, PROPERTY_BITS, PROPERTY_NAMES);
         }
+    }
 
-        if ((permissions & BluetoothGattCharacteristic.PERMISSION_WRITE_SIGNED_MITM) != 0x0 ) {
-            props.put("WriteSignedMITM");
-        }
+    public static JSONArray decodeProperties(BluetoothGattCharacteristic characteristic) {
+        return toJSONArray(decodedProperties[characteristic.getProperties() & 0xFF]);
+    }
 
-        return props;
+    public static JSONArray decodePermissions(BluetoothGattCharacteristic characteristic) {
+        return toJSONArray(characteristicPermissions.get(characteristic.getPermissions()));
     }
 
     public static JSONArray decodePermissions(BluetoothGattDescriptor descriptor) {
+        return toJSONArray(descriptorPermissions.get(descriptor.getPermissions()));
+    }
 
-        // NOTE: props strings need to be consistent across iOS and Android
-        JSONArray props = new JSONArray();
-        int permissions = descriptor.getPermissions();
-
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_READ) != 0x0 ) {
-            props.put("Read");
-        }
-
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE) != 0x0 ) {
-            props.put("Write");
-        }
-
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED) != 0x0 ) {
-            props.put("ReadEncrypted");
-        }
-
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED) != 0x0 ) {
-            props.put("WriteEncrypted");
-        }
-
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_READ_ENCRYPTED_MITM) != 0x0 ) {
-            props.put("ReadEncryptedMITM");
-        }
-
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_ENCRYPTED_MITM) != 0x0 ) {
-            props.put("WriteEncryptedMITM");
+    private static String[] decode(int value, int[] bits, String[] names) {
+        List<String> props = new ArrayList<String>();
+        for (int i = 0; i < bits.length; i++) {
+            if ((value & bits[i]) != 0x0) {
+                props.add(names[i]);
+            }
         }
+        return props.toArray(new String[props.size()]);
+    }
 
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_SIGNED) != 0x0 ) {
-            props.put("WriteSigned");
+    private static JSONArray toJSONArray(String[] names) {
+        JSONArray json = new JSONArray();
+        for (String name : names) {
+            json.put(name);
         }
+        return json;
+    }
 
-        if ((permissions & BluetoothGattDescriptor.PERMISSION_WRITE_SIGNED_MITM) != 0x0 ) {
-            props.put("WriteSignedMITM");
+    private static class DecodeCache {
+        private final int[] bits;
+        private final String[] names;
+        private final int mask;
+        private final String[][] decoded;
+
+        DecodeCache(int[] bits, String[] names) {
+            this.bits = bits;
+            this.names = names;
+            int mask = 0;
+            for (int bit : bits) {
+                mask |= bit;
+            }
+            this.mask = mask;
+            this.decoded = new String[mask + 1][];
+        }
+
+        // bits without a name are ignored, like before
+        synchronized String[] get(int value) {
+            value &= mask;
+            if (decoded[value] == null) {
+                decoded[value] = decode(value, bits, names);
+            }
+            return decoded[value];
         }
-
-        return props;
     }
 
 }
-
@@ -0,0 +1,138 @@
+package com.megster.cordova.ble.central;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.LOG;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Subscribes to several characteristics with a single startNotifications call. Each characteristic
+ * gets its own Subscription callback. Notifications are forwarded to the shared callback with the
+ * index of the subscription appended, so JavaScript can route them to the individual callbacks.
+ * The group reports once when every CCCD write has been answered.
+ */
+class NotificationGroup {
+    private static final String TAG = "NotificationGroup";
+
+    private CallbackContext callbackContext;
+    private int remaining;
+    private int active = 0;
+    private JSONArray errors = new JSONArray();
+
+    public NotificationGroup(CallbackContext callbackContext, int size) {
+        this.callbackContext = callbackContext;
+        this.remaining = size;
+    }
+
+    public Subscription subscriptionFor(int index) {
+        return new Subscription(index);
+    }
+
+    private void subscribed(Subscription subscription) {
+        synchronized(this) {
+            if (subscription.answered) {
+                return;
+            }
+            subscription.answered = true;
+            active++;
+            remaining--;
+            if (remaining == 0) {
+                sendComplete();
+            }
+        }
+    }
+
+    private void failed(Subscription subscription, PluginResult pluginResult) {
+        synchronized(this) {
+            if (subscription.answered) {
+                // notifications were already active, e.g. the peripheral disconnected
+                LOG.w(TAG, "Subscription %d failed: %s", subscription.index, pluginResult.getMessage());
+                return;
+            }
+            subscription.answered = true;
+            remaining--;
+
+            JSONObject error = new JSONObject();
+            try {
+                error.put("index", subscription.index);
+                error.put("error", pluginResult.getStrMessage());
+            } catch (JSONException e) { // this shouldn't happen
+                e.printStackTrace();
+            }
+            errors.put(error);
+
+            if (remaining == 0) {
+                sendComplete();
+            }
+        }
+    }
+
+    // every CCCD write was answered, keep the callback while any subscription is active
+    private void sendComplete() {
+        JSONObject summary = new JSONObject();
+        try {
+            summary.put("status", errors.length() == 0 ? "active" : "error");
+            summary.put("active", active);
+            summary.put("errors", errors);
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+
+        PluginResult result;
+        if (errors.length() == 0) {
+            result = new PluginResult(PluginResult.Status.OK, summary);
+        } else {
+            result = new PluginResult(PluginResult.Status.ERROR, summary);
+        }
+        result.setKeepCallback(active > 0);
+        callbackContext.sendPluginResult(result);
+    }
+
+    private void forward(Subscription subscription, PluginResult pluginResult) {
+        List<PluginResult> parts = new ArrayList<PluginResult>(3);
+        if (pluginResult.getMessageType() == PluginResult.MESSAGE_TYPE_MULTIPART) {
+            for (int i = 0; i < pluginResult.getMultipartMessagesSize(); i++) {
+                parts.add(pluginResult.getMultipartMessage(i));
+            }
+        } else {
+            parts.add(pluginResult);
+        }
+        parts.add(new PluginResult(PluginResult.Status.OK, subscription.index));
+
+        PluginResult result = new PluginResult(PluginResult.Status.OK, parts);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    class Subscription extends CallbackContext {
+        private int index;
+        private boolean answered = false;
+
+        Subscription(int index) {
+            super(callbackContext.getCallbackId(), null);
+            this.index = index;
+        }
+
+        // the CCCD write succeeded
+        public void subscribed() {
+            NotificationGroup.this.subscribed(this);
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getStatus() == PluginResult.Status.NO_RESULT.ordinal()) {
+                return;
+            }
+            if (pluginResult.getStatus() == PluginResult.Status.OK.ordinal()) {
+                forward(this, pluginResult);
+            } else {
+                failed(this, pluginResult);
+            }
+        }
+    }
+}
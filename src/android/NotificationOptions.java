@@ -0,0 +1,145 @@
+package com.megster.cordova.ble.central;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Per subscription options of startNotification, e.g. {batchInterval: 50, batchBytes: 512},
+ * {bufferSize: 256, overflow: "dropOldest"}, {compact: true}, {changesOnly: true, heartbeat: 10},
+ * {decimate: 20}, {maxRate: 20} or {schema: [...]}. Missing options keep the default of one
+ * multipart result per notification.
+ */
+class NotificationOptions {
+
+    // upper bound for a batch that only has a size limit
+    static final long DEFAULT_BATCH_INTERVAL = 100;
+
+    private long batchInterval = 0;
+    private int batchBytes = 0;
+    private int bufferSize = 0;
+    private int overflow = NotificationRing.DROP_OLDEST;
+    private boolean compact = false;
+    private boolean changesOnly = false;
+    private long heartbeat = 0;
+    private NotificationSchema schema;
+    private int decimation = 1;
+    private long throttleInterval = 0;
+
+    public static NotificationOptions fromJSON(JSONObject json) {
+        NotificationOptions options = new NotificationOptions();
+        if (json == null) {
+            return options;
+        }
+
+        options.batchInterval = json.optLong("batchInterval", 0);
+        options.batchBytes = json.optInt("batchBytes", 0);
+        if (options.batchInterval < 0 || options.batchBytes < 0) {
+            throw new IllegalArgumentException("batchInterval and batchBytes must not be negative");
+        }
+        if (options.batchInterval == 0 && options.batchBytes > 0) {
+            options.batchInterval = DEFAULT_BATCH_INTERVAL;
+        }
+
+        options.bufferSize = json.optInt("bufferSize", 0);
+        if (options.bufferSize < 0) {
+            throw new IllegalArgumentException("bufferSize must not be negative");
+        }
+        String overflow = json.optString("overflow", "dropOldest");
+        if (overflow.equals("dropOldest")) {
+            options.overflow = NotificationRing.DROP_OLDEST;
+        } else if (overflow.equals("dropNewest")) {
+            options.overflow = NotificationRing.DROP_NEWEST;
+        } else if (overflow.equals("block")) {
+            options.overflow = NotificationRing.BLOCK;
+        } else {
+            throw new IllegalArgumentException("overflow must be one of: dropOldest | dropNewest | block");
+        }
+
+        options.compact = json.optBoolean("compact", false);
+
+        // heartbeat is given in seconds
+        options.changesOnly = json.optBoolean("changesOnly", false);
+        double heartbeat = json.optDouble("heartbeat", 0);
+        if (Double.isNaN(heartbeat) || heartbeat < 0) {
+            throw new IllegalArgumentException("heartbeat must not be negative");
+        }
+        options.heartbeat = (long) (heartbeat * 1000);
+
+        options.decimation = json.optInt("decimate", 1);
+        if (options.decimation < 1) {
+            throw new IllegalArgumentException("decimate must be 1 or more");
+        }
+
+        // maxRate is in notifications per second
+        double maxRate = json.optDouble("maxRate", 0);
+        if (Double.isNaN(maxRate) || maxRate < 0) {
+            throw new IllegalArgumentException("maxRate must not be negative");
+        }
+        if (maxRate > 0) {
+            options.throttleInterval = Math.max(1, Math.round(1000 / maxRate));
+        }
+
+        JSONArray schema = json.optJSONArray("schema");
+        if (schema != null) {
+            options.schema = NotificationSchema.fromJSON(schema);
+        }
+        return options;
+    }
+
+    public boolean isBatching() {
+        return batchInterval > 0;
+    }
+
+    // flush the batch after this many milliseconds
+    public long getBatchInterval() {
+        return batchInterval;
+    }
+
+    // flush the batch once it holds this many bytes, 0 for no size limit
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+
+    public boolean isBuffered() {
+        return bufferSize > 0;
+    }
+
+    // capacity of the ring buffer in notifications, 0 sends straight to the bridge
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public int getOverflow() {
+        return overflow;
+    }
+
+    // single ArrayBuffer frames with the sequence number in a header, batches are not affected
+    public boolean isCompact() {
+        return compact;
+    }
+
+    // skip a value that is byte for byte the same as the last one forwarded
+    public boolean isChangesOnly() {
+        return changesOnly;
+    }
+
+    // forward an unchanged value anyway after this many milliseconds, 0 never does
+    public long getHeartbeat() {
+        return heartbeat;
+    }
+
+    // forward every Nth notification, 1 forwards all of them
+    public int getDecimation() {
+        return decimation;
+    }
+
+    // minimum milliseconds between forwarded notifications, 0 does not throttle
+    public long getThrottleInterval() {
+        return throttleInterval;
+    }
+
+    // decodes payloads natively, null delivers the raw bytes
+    public NotificationSchema getSchema() {
+        return schema;
+    }
+}
@@ -0,0 +1,225 @@
+package com.megster.cordova.ble.central;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import org.apache.cordova.LOG;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends the notifications of one characteristic to an app-local file, independent of the
+ * JavaScript callback. The file starts with the magic "SBLR" and a version byte, followed by
+ * little endian records of [int64 timestamp millis][int32 sequence][uint16 length][payload].
+ * The GATT callback thread only copies records into a direct buffer. Full buffers are written
+ * through a FileChannel on the recorder's own thread, which also writes what is buffered once
+ * a second, so a quiet characteristic or a disconnect loses at most a second of data.
+ */
+class NotificationRecorder {
+    private static final String TAG = "NotificationRecorder";
+
+    private static final byte[] MAGIC = { 'S', 'B', 'L', 'R' };
+    private static final byte VERSION = 1;
+    private static final int RECORD_HEADER_SIZE = 14;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+    private final File file;
+    private final UUID serviceUUID;
+    private final UUID characteristicUUID;
+    private final FileChannel channel;
+    private final HandlerThread thread;
+    private final Handler writer;
+
+    // filled by the GATT callback thread, swapped for the spare when it is handed to the writer
+    private ByteBuffer buffer = newBuffer(BUFFER_SIZE);
+    private ByteBuffer spare;
+
+    private int sequence = 0;
+    private long bytes = 0;
+    private boolean open = true;
+    private boolean stopped = false;
+    private volatile String errorMessage;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            if (flush()) {
+                writer.postDelayed(this, FLUSH_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    public NotificationRecorder(File file, UUID serviceUUID, UUID characteristicUUID) throws IOException {
+        this.file = file;
+        this.serviceUUID = serviceUUID;
+        this.characteristicUUID = characteristicUUID;
+        this.channel = new FileOutputStream(file).getChannel();
+
+        buffer.put(MAGIC);
+        buffer.put(VERSION);
+
+        thread = new HandlerThread(TAG);
+        thread.start();
+        writer = new Handler(thread.getLooper());
+        writer.postDelayed(flushTask, FLUSH_INTERVAL_MILLIS);
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public UUID getServiceUUID() {
+        return serviceUUID;
+    }
+
+    public UUID getCharacteristicUUID() {
+        return characteristicUUID;
+    }
+
+    public synchronized void record(byte[] value) {
+        if (!open) {
+            return;
+        }
+
+        int size = RECORD_HEADER_SIZE + value.length;
+        if (buffer.remaining() < size) {
+            submit();
+        }
+
+        // larger than the buffer, only possible with a huge MTU
+        ByteBuffer target = size <= buffer.remaining() ? buffer : newBuffer(size);
+
+        target.putLong(System.currentTimeMillis());
+        target.putInt(sequence++);
+        target.putShort((short) value.length);
+        target.put(value);
+        bytes += value.length;
+
+        if (target != buffer) {
+            write(target);
+        }
+    }
+
+    // hands what is buffered to the writer thread, returns false once the recording is closed
+    public synchronized boolean flush() {
+        if (!open) {
+            return false;
+        }
+        submit();
+        return true;
+    }
+
+    private void submit() {
+        if (buffer.position() == 0) {
+            return;
+        }
+        ByteBuffer full = buffer;
+        buffer = spare != null ? spare : newBuffer(BUFFER_SIZE);
+        spare = null;
+        write(full);
+    }
+
+    private void write(final ByteBuffer full) {
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!channel.isOpen()) {
+                    return; // an earlier write failed
+                }
+                full.flip();
+                try {
+                    while (full.hasRemaining()) {
+                        channel.write(full);
+                    }
+                } catch (IOException e) {
+                    LOG.e(TAG, "Recording to " + file + " failed", e);
+                    errorMessage = e.getMessage();
+                    synchronized(NotificationRecorder.this) {
+                        open = false;
+                    }
+                    close();
+                    return;
+                }
+                full.clear();
+
+                synchronized(NotificationRecorder.this) {
+                    if (full.capacity() == BUFFER_SIZE) {
+                        spare = full;
+                    }
+                }
+            }
+        });
+    }
+
+    // writes what is buffered and closes the file, returns the summary for JavaScript
+    public JSONObject stop() {
+        synchronized(this) {
+            if (stopped) {
+                return asJSONObject();
+            }
+            stopped = true;
+            if (open) {
+                submit();
+                open = false;
+            }
+        }
+
+        // the close runs after the pending writes, wait for it so the summary is final
+        final CountDownLatch closed = new CountDownLatch(1);
+        writer.removeCallbacks(flushTask);
+        writer.post(new Runnable() {
+            @Override
+            public void run() {
+                close();
+                closed.countDown();
+            }
+        });
+        thread.quitSafely();
+
+        try {
+            if (!closed.await(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.w(TAG, "Timed out closing " + file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return asJSONObject();
+    }
+
+    // only called on the writer thread
+    private void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            LOG.w(TAG, "Closing " + file + " failed", e);
+        }
+    }
+
+    public synchronized JSONObject asJSONObject() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("name", file.getName());
+            json.put("path", file.getAbsolutePath());
+            json.put("recording", open);
+            json.put("records", sequence);
+            json.put("bytes", bytes);
+            if (errorMessage != null) {
+                json.put("errorMessage", errorMessage);
+            }
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        return json;
+    }
+}
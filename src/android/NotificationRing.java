@@ -0,0 +1,84 @@
+package com.megster.cordova.ble.central;
+
+/**
+ * Fixed capacity ring buffer of notifications waiting to cross the Cordova bridge.
+ * When the buffer is full the overflow policy decides which notification is lost.
+ * Lost notifications are counted so the app can detect gaps in the sequence numbers.
+ */
+class NotificationRing {
+
+    static final int DROP_OLDEST = 0;
+    static final int DROP_NEWEST = 1;
+    static final int BLOCK = 2;
+
+    // never stall the binder thread delivering GATT callbacks for longer than this
+    private static final long BLOCK_TIMEOUT_MILLIS = 50;
+
+    private final byte[][] values;
+    private final int[] sequences;
+    private final int policy;
+    private int head = 0;
+    private int size = 0;
+    private long dropped = 0;
+
+    public NotificationRing(int capacity, int policy) {
+        this.values = new byte[capacity][];
+        this.sequences = new int[capacity];
+        this.policy = policy;
+    }
+
+    public synchronized void offer(byte[] value, int sequence) {
+        if (size == values.length && policy == BLOCK) {
+            long deadline = System.currentTimeMillis() + BLOCK_TIMEOUT_MILLIS;
+            long wait = BLOCK_TIMEOUT_MILLIS;
+            while (size == values.length && wait > 0) {
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                wait = deadline - System.currentTimeMillis();
+            }
+        }
+
+        if (size == values.length) {
+            dropped++;
+            if (policy != DROP_OLDEST) {
+                return;
+            }
+            // overwrite the oldest
+            values[head] = null;
+            head = (head + 1) % values.length;
+            size--;
+        }
+
+        int tail = (head + size) % values.length;
+        values[tail] = value;
+        sequences[tail] = sequence;
+        size++;
+    }
+
+    public synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    // removes the oldest notification, its sequence number is stored in sequence[0]
+    public synchronized byte[] poll(int[] sequence) {
+        if (size == 0) {
+            return null;
+        }
+        sequence[0] = sequences[head];
+        byte[] value = values[head];
+        values[head] = null;
+        head = (head + 1) % values.length;
+        size--;
+        notifyAll();
+        return value;
+    }
+
+    // number of notifications lost to overflow since the subscription started
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,120 @@
+package com.megster.cordova.ble.central;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Field layout of a notification payload, e.g. [{offset: 0, type: "int16", scale: 0.01}, ...].
+ * Each payload is decoded into one little endian float64 per field, which JavaScript
+ * reads as a Float64Array. A field beyond the end of a short payload decodes to NaN.
+ */
+class NotificationSchema {
+
+    private static final String[] TYPE_NAMES = {
+        "int8", "uint8", "int16", "uint16", "int32", "uint32", "float32"
+    };
+    private static final int[] TYPE_SIZES = { 1, 1, 2, 2, 4, 4, 4 };
+
+    private static final int INT8 = 0;
+    private static final int UINT8 = 1;
+    private static final int INT16 = 2;
+    private static final int UINT16 = 3;
+    private static final int INT32 = 4;
+    private static final int UINT32 = 5;
+    private static final int FLOAT32 = 6;
+
+    private final int[] offsets;
+    private final int[] types;
+    private final double[] scales;
+    private final boolean[] bigEndian;
+
+    private NotificationSchema(int size) {
+        offsets = new int[size];
+        types = new int[size];
+        scales = new double[size];
+        bigEndian = new boolean[size];
+    }
+
+    public static NotificationSchema fromJSON(JSONArray fields) {
+        if (fields.length() == 0) {
+            throw new IllegalArgumentException("schema must have at least one field");
+        }
+
+        NotificationSchema schema = new NotificationSchema(fields.length());
+        for (int i = 0; i < fields.length(); i++) {
+            JSONObject field = fields.optJSONObject(i);
+            if (field == null) {
+                throw new IllegalArgumentException("Invalid schema field at index " + i);
+            }
+
+            schema.offsets[i] = field.optInt("offset", -1);
+            if (schema.offsets[i] < 0) {
+                throw new IllegalArgumentException("Schema field at index " + i + " needs an offset of 0 or more");
+            }
+
+            schema.types[i] = typeFromName(field.optString("type", ""));
+            if (schema.types[i] < 0) {
+                throw new IllegalArgumentException("type must be one of: int8 | uint8 | int16 | uint16 | int32 | uint32 | float32");
+            }
+
+            schema.scales[i] = field.optDouble("scale", 1);
+            schema.bigEndian[i] = field.optBoolean("bigEndian", false);
+        }
+        return schema;
+    }
+
+    private static int typeFromName(String name) {
+        for (int i = 0; i < TYPE_NAMES.length; i++) {
+            if (TYPE_NAMES[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // one little endian float64 per field
+    public byte[] decode(byte[] payload) {
+        byte[] record = new byte[offsets.length * 8];
+        for (int i = 0; i < offsets.length; i++) {
+            double value = Double.NaN;
+            if (offsets[i] + TYPE_SIZES[types[i]] <= payload.length) {
+                value = readField(payload, i) * scales[i];
+            }
+
+            long bits = Double.doubleToRawLongBits(value);
+            for (int b = 0; b < 8; b++) {
+                record[i * 8 + b] = (byte) (bits >>> (8 * b));
+            }
+        }
+        return record;
+    }
+
+    private double readField(byte[] payload, int field) {
+        int offset = offsets[field];
+        int size = TYPE_SIZES[types[field]];
+
+        // assemble the raw bits, little endian unless the field says otherwise
+        long raw = 0;
+        for (int b = 0; b < size; b++) {
+            int index = bigEndian[field] ? offset + size - 1 - b : offset + b;
+            raw |= (long) (payload[index] & 0xFF) << (8 * b);
+        }
+
+        switch (types[field]) {
+            case INT8:
+                return (byte) raw;
+            case UINT8:
+            case UINT16:
+            case UINT32:
+                return raw;
+            case INT16:
+                return (short) raw;
+            case INT32:
+                return (int) raw;
+            case FLOAT32:
+                return Float.intBitsToFloat((int) raw);
+            default:
+                return Double.NaN;
+        }
+    }
+}
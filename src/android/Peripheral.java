@@ -19,6 +19,7 @@ import android.app.Activity;
 import android.bluetooth.*;
 import android.os.Build;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Base64;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.LOG;
@@ -28,8 +29,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -45,14 +49,38 @@ public class Peripheral extends BluetoothGattCallback {
 
     private static final int FAKE_PERIPHERAL_RSSI = 0x7FFFFFFF;
 
+    // ATT MTU before any exchange, a write carries MTU - 3 bytes of data
+    private static final int DEFAULT_MTU = 23;
+    private static final int ATT_WRITE_HEADER_SIZE = 3;
+
+    // write stream tuning: how long to wait when the stack buffer is full, how many times
+    // to retry before giving up and how many packets to send before letting other commands run.
+    // Fragments of a chunked write are retried the same way.
+    private static final long WRITE_STREAM_RETRY_MILLIS = 5;
+    private static final int WRITE_STREAM_MAX_RETRIES = 200;
+    private static final int WRITE_STREAM_BURST = 64;
+
+    // after this many control commands in a row a waiting bulk command gets a turn
+    private static final int BULK_STARVATION_LIMIT = 8;
+
     private BluetoothDevice device;
     private byte[] advertisingData;
     private int advertisingRSSI;
     private boolean autoconnect = false;
+    private boolean binaryResults = false;
     private boolean connected = false;
     private boolean connecting = false;
-    private ConcurrentLinkedQueue<BLECommand> commandQueue = new ConcurrentLinkedQueue<BLECommand>();
+    private ConcurrentLinkedQueue<BLECommand> controlQueue = new ConcurrentLinkedQueue<BLECommand>();
+    private ConcurrentLinkedQueue<BLECommand> bulkQueue = new ConcurrentLinkedQueue<BLECommand>();
+    private int controlCommandsInARow = 0;
     private final AtomicBoolean bleProcessing = new AtomicBoolean();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // command in flight and the watchdog that fails it if the peripheral never answers
+    private BLECommand currentCommand;
+    private Runnable commandTimer;
+    private Map<Integer, Long> commandTimeouts = new HashMap<Integer, Long>();
+    private Map<Integer, Integer> timeoutCounts = new HashMap<Integer, Integer>();
 
     BluetoothGatt gatt;
 
@@ -61,9 +89,30 @@ public class Peripheral extends BluetoothGattCallback {
     private CallbackContext readCallback;
     private CallbackContext writeCallback;
     private CallbackContext requestMtuCallback;
+    private int mtu = DEFAULT_MTU;
+    private WriteStream writeStream;
+    private boolean writeStreamProcessing = false;
+    private int writeStreamBurst = 0;
+    private final Runnable writeStreamRetry = new Runnable() {
+        @Override
+        public void run() {
+            writeStreamPacket();
+        }
+    };
     private Activity currentActivity;
 
     private Map<String, SequentialCallbackContext> notificationCallbacks = new HashMap<String, SequentialCallbackContext>();
+    private Map<String, NotificationRecorder> recorders = new ConcurrentHashMap<String, NotificationRecorder>();
+    private final PeripheralStats stats = new PeripheralStats();
+
+    // Built after service discovery so the hot path finds characteristics without scanning the services.
+    // Each characteristic UUID maps to the best match for each kind of operation, see the INDEX_ slots.
+    private static final int INDEX_READ = 0;
+    private static final int INDEX_WRITE = 1;
+    private static final int INDEX_WRITE_NO_RESPONSE = 2;
+    private static final int INDEX_NOTIFY = 3;
+    private volatile Map<UUID, BluetoothGattService> serviceIndex = Collections.emptyMap();
+    private volatile Map<UUID, Map<UUID, BluetoothGattCharacteristic[]>> characteristicIndex = Collections.emptyMap();
 
     public Peripheral(BluetoothDevice device) {
 
@@ -92,8 +141,10 @@ public class Peripheral extends BluetoothGattCallback {
         }
         connected = false;
         connecting = true;
+        mtu = DEFAULT_MTU;
         queueCleanup();
         callbackCleanup();
+        clearIndex();
 
         BluetoothDevice device = getDevice();
         if (Build.VERSION.SDK_INT < 23) {
@@ -129,6 +180,7 @@ public class Peripheral extends BluetoothGattCallback {
         }
         queueCleanup();
         callbackCleanup();
+        clearIndex();
     }
 
     // the peripheral disconnected
@@ -146,8 +198,11 @@ public class Peripheral extends BluetoothGattCallback {
 
         sendDisconnectMessage();
 
+        flushNotifications();
+        flushRecordings();
         queueCleanup();
         callbackCleanup();
+        clearIndex();
     }
 
     // notify the phone that the peripheral disconnected
@@ -171,11 +226,22 @@ public class Peripheral extends BluetoothGattCallback {
         LOG.d(TAG, "mtu=%d, status=%d", mtu, status);
 
         if (status == BluetoothGatt.GATT_SUCCESS) {
-            requestMtuCallback.success(mtu);
-        } else {
-            requestMtuCallback.error("MTU request failed");
+            this.mtu = mtu;
+        }
+
+        // the stack may also change the MTU without a request
+        if (requestMtuCallback != null) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                requestMtuCallback.success(mtu);
+            } else {
+                requestMtuCallback.error("MTU request failed");
+            }
+            requestMtuCallback = null;
         }
-        requestMtuCallback = null;
+    }
+
+    public int getMtu() {
+        return mtu;
     }
 
     public void requestMtu(CallbackContext callback, int mtuValue) {
@@ -251,13 +317,17 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     public JSONObject asJSONObject()  {
+        return asJSONObject(true);
+    }
+
+    private JSONObject asJSONObject(boolean includeAdvertising)  {
 
         JSONObject json = new JSONObject();
 
         try {
             json.put("name", device.getName());
             json.put("id", device.getAddress()); // mac address
-            if (advertisingData != null) {
+            if (includeAdvertising && advertisingData != null) {
                 json.put("advertising", byteArrayToJSON(advertisingData));
             }
             // TODO real RSSI if we have it, else
@@ -287,8 +357,12 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     public JSONObject asJSONObject(BluetoothGatt gatt) {
+        return asJSONObject(gatt, true);
+    }
+
+    private JSONObject asJSONObject(BluetoothGatt gatt, boolean includeAdvertising) {
 
-        JSONObject json = asJSONObject();
+        JSONObject json = asJSONObject(includeAdvertising);
 
         try {
             JSONArray servicesArray = new JSONArray();
@@ -342,6 +416,56 @@ public class Peripheral extends BluetoothGattCallback {
         return json;
     }
 
+    // binary results carry the advertising data as a separate ArrayBuffer part instead of
+    // Base64 inside the JSON
+    public PluginResult asPluginResult(boolean binary) {
+        if (binary && advertisingData != null) {
+            return binaryResult(asJSONObject(false));
+        }
+        return new PluginResult(PluginResult.Status.OK, asJSONObject());
+    }
+
+    // one result for a batch of scan results, binary results carry the advertising data
+    // of each peripheral as a separate ArrayBuffer part after the array, in the same order
+    static PluginResult asPluginResult(List<Peripheral> peripherals, boolean binary) {
+        for (Peripheral peripheral : peripherals) {
+            binary = binary && peripheral.advertisingData != null;
+        }
+
+        JSONArray array = new JSONArray();
+        for (Peripheral peripheral : peripherals) {
+            array.put(peripheral.asJSONObject(!binary));
+        }
+        if (!binary) {
+            return new PluginResult(PluginResult.Status.OK, array);
+        }
+
+        List<PluginResult> parts = new ArrayList<PluginResult>(peripherals.size() + 1);
+        parts.add(new PluginResult(PluginResult.Status.OK, array));
+        for (Peripheral peripheral : peripherals) {
+            parts.add(new PluginResult(PluginResult.Status.OK, peripheral.advertisingData));
+        }
+        return new PluginResult(PluginResult.Status.OK, parts);
+    }
+
+    private PluginResult asPluginResult(BluetoothGatt gatt) {
+        if (binaryResults && advertisingData != null) {
+            return binaryResult(asJSONObject(gatt, false));
+        }
+        return new PluginResult(PluginResult.Status.OK, asJSONObject(gatt));
+    }
+
+    private PluginResult binaryResult(JSONObject json) {
+        List<PluginResult> parts = new ArrayList<PluginResult>(2);
+        parts.add(new PluginResult(PluginResult.Status.OK, json));
+        parts.add(new PluginResult(PluginResult.Status.OK, advertisingData));
+        return new PluginResult(PluginResult.Status.OK, parts);
+    }
+
+    public void setBinaryResults(boolean binaryResults) {
+        this.binaryResults = binaryResults;
+    }
+
     static JSONObject byteArrayToJSON(byte[] bytes) throws JSONException {
         JSONObject object = new JSONObject();
         object.put("CDVType", "ArrayBuffer");
@@ -369,7 +493,8 @@ public class Peripheral extends BluetoothGattCallback {
         // overrides the connect callback. Unfortunately this edge case make the code confusing.
 
         if (status == BluetoothGatt.GATT_SUCCESS) {
-            PluginResult result = new PluginResult(PluginResult.Status.OK, this.asJSONObject(gatt));
+            buildIndex(gatt);
+            PluginResult result = asPluginResult(gatt);
             result.setKeepCallback(true);
             if (refreshCallback != null) {
                 refreshCallback.sendPluginResult(result);
@@ -414,24 +539,135 @@ public class Peripheral extends BluetoothGattCallback {
         super.onCharacteristicChanged(gatt, characteristic);
         LOG.d(TAG, "onCharacteristicChanged %s", characteristic);
 
-        SequentialCallbackContext callback = notificationCallbacks.get(generateHashKey(characteristic));
+        String key = generateHashKey(characteristic);
+        stats.notification(characteristic.getValue().length);
+
+        // recording is independent of the JavaScript callback and its filters
+        NotificationRecorder recorder = recorders.get(key);
+        if (recorder != null) {
+            recorder.record(characteristic.getValue());
+        }
+
+        SequentialCallbackContext callback = notificationCallbacks.get(key);
 
         if (callback != null) {
             callback.sendSequentialResult(characteristic.getValue());
         }
     }
 
+    // JavaScript received count notifications of a buffered subscription
+    // looked up by key so it also works after a disconnect, when gatt is gone
+    public void acknowledgeNotifications(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, int count) {
+        String prefix = serviceUUID + "|" + characteristicUUID + "|";
+        boolean subscribed = false;
+        synchronized(this) {
+            for (Map.Entry<String, SequentialCallbackContext> entry : notificationCallbacks.entrySet()) {
+                if (entry.getKey().startsWith(prefix)) {
+                    entry.getValue().acknowledge(count);
+                    subscribed = true;
+                }
+            }
+        }
+
+        if (!subscribed) {
+            callbackContext.error("Not subscribed to " + characteristicUUID + ".");
+            return;
+        }
+        callbackContext.success();
+    }
+
+    // records the notifications of a subscribed characteristic to file
+    public void startRecording(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, File file) {
+
+        if (gatt == null) {
+            callbackContext.error("BluetoothGatt is null");
+            return;
+        }
+
+        BluetoothGattService service = findService(serviceUUID);
+
+        if (service == null) {
+            callbackContext.error("Service " + serviceUUID + " not found.");
+            return;
+        }
+
+        BluetoothGattCharacteristic characteristic = findNotifyCharacteristic(service, characteristicUUID);
+
+        if (characteristic == null) {
+            callbackContext.error("Characteristic " + characteristicUUID + " not found.");
+            return;
+        }
+
+        String key = generateHashKey(serviceUUID, characteristic);
+
+        if (!notificationCallbacks.containsKey(key)) {
+            callbackContext.error("Call startNotification for " + characteristicUUID + " before recording.");
+            return;
+        }
+
+        if (recorders.containsKey(key)) {
+            callbackContext.error("Already recording " + characteristicUUID + ".");
+            return;
+        }
+
+        try {
+            NotificationRecorder recorder = new NotificationRecorder(file, serviceUUID, characteristicUUID);
+            recorders.put(key, recorder);
+            callbackContext.success(recorder.asJSONObject());
+        } catch (IOException e) {
+            LOG.e(TAG, "Failed to start recording", e);
+            callbackContext.error("Failed to start recording: " + e.getMessage());
+        }
+    }
+
+    // also works after a disconnect, the recording keeps its file open until stopped
+    public void stopRecording(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
+        for (Map.Entry<String, NotificationRecorder> entry : recorders.entrySet()) {
+            NotificationRecorder recorder = entry.getValue();
+            if (serviceUUID.equals(recorder.getServiceUUID()) && characteristicUUID.equals(recorder.getCharacteristicUUID())) {
+                recorders.remove(entry.getKey());
+                callbackContext.success(recorder.stop());
+                return;
+            }
+        }
+        callbackContext.error("Not recording " + characteristicUUID + ".");
+    }
+
+    // recordings stay open over a disconnect, but what they buffered is written now
+    private void flushRecordings() {
+        for (NotificationRecorder recorder : recorders.values()) {
+            recorder.flush();
+        }
+    }
+
+    public void stopRecordings() {
+        for (NotificationRecorder recorder : recorders.values()) {
+            recorder.stop();
+        }
+        recorders.clear();
+    }
+
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
         super.onCharacteristicRead(gatt, characteristic, status);
         LOG.d(TAG, "onCharacteristicRead %s", characteristic);
 
         synchronized(this) {
+            if (!isCurrentCommand(BLECommand.READ)) {
+                LOG.w(TAG, "Ignoring late onCharacteristicRead %s", characteristic.getUuid());
+                return;
+            }
+
             if (readCallback != null) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
-                    readCallback.success(characteristic.getValue());
+                    byte[] value = characteristic.getValue();
+                    stats.bytesIn(value.length);
+                    readCallback.success(value);
+                    for (CallbackContext callback : currentCommand.takeCoalescedCallbacks()) {
+                        callback.success(value);
+                    }
                 } else {
-                    readCallback.error("Error reading " + characteristic.getUuid() + " status=" + status);
+                    readFailed(readCallback, "Error reading " + characteristic.getUuid() + " status=" + status);
                 }
 
                 readCallback = null;
@@ -447,6 +683,42 @@ public class Peripheral extends BluetoothGattCallback {
         LOG.d(TAG, "onCharacteristicWrite %s", characteristic);
 
         synchronized(this) {
+            if (writeStreamProcessing) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    writeStreamPacket();
+                } else {
+                    writeStreamFailed("Write stream failed status=" + status);
+                }
+                return;
+            }
+
+            if (isCurrentCommand(BLECommand.RELIABLE_WRITE)) {
+                // the stack compares the peripheral's echo of each prepared write with the value sent
+                // and aborts the reliable write on a mismatch, the status reports it
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    reliableWriteFailed("Reliable write failed for " + characteristic.getUuid() + " status=" + status);
+                } else if (currentCommand.hasNextWrite()) {
+                    startCommandTimer(currentCommand); // the deadline applies to each write
+                    writeReliableCharacteristic(currentCommand);
+                } else if (!gatt.executeReliableWrite()) {
+                    reliableWriteFailed("Failed to execute reliable write");
+                }
+                return;
+            }
+
+            if (!isCurrentCommand(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) && !isCurrentCommand(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE)) {
+                LOG.w(TAG, "Ignoring late onCharacteristicWrite %s", characteristic.getUuid());
+                return;
+            }
+
+            // chunked write, send the next fragment and only report once all are written
+            if (status == BluetoothGatt.GATT_SUCCESS && writeCallback != null && currentCommand.hasNextFragment()) {
+                BLECommand command = currentCommand;
+                startCommandTimer(command); // the deadline applies to each fragment
+                writeCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.nextFragment(), command.getType());
+                return;
+            }
+
             if (writeCallback != null) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     writeCallback.success();
@@ -461,10 +733,96 @@ public class Peripheral extends BluetoothGattCallback {
         commandCompleted();
     }
 
+    @Override
+    public void onReliableWriteCompleted(BluetoothGatt gatt, int status) {
+        super.onReliableWriteCompleted(gatt, status);
+        LOG.d(TAG, "onReliableWriteCompleted status=%d", status);
+
+        synchronized(this) {
+            if (!isCurrentCommand(BLECommand.RELIABLE_WRITE)) {
+                LOG.w(TAG, "Ignoring late onReliableWriteCompleted");
+                return;
+            }
+
+            if (writeCallback != null) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    writeCallback.success();
+                } else {
+                    writeCallback.error("Reliable write failed status=" + status);
+                }
+                writeCallback = null;
+            }
+        }
+
+        commandCompleted();
+    }
+
     @Override
     public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
         super.onDescriptorWrite(gatt, descriptor, status);
         LOG.d(TAG, "onDescriptorWrite %s", descriptor);
+
+        synchronized(this) {
+            if (isCurrentCommand(BLECommand.WRITE_DESCRIPTOR)) {
+                if (writeCallback != null) {
+                    if (status == BluetoothGatt.GATT_SUCCESS) {
+                        writeCallback.success();
+                    } else {
+                        writeCallback.error("Error writing descriptor " + descriptor.getUuid() + " status=" + status);
+                    }
+                    writeCallback = null;
+                }
+            } else if (isCurrentCommand(BLECommand.REGISTER_NOTIFY)) {
+                // success is silent, the callback receives the notifications
+                CallbackContext callback = currentCommand.getCallbackContext();
+                if (status != BluetoothGatt.GATT_SUCCESS) {
+                    notificationCallbacks.remove(generateHashKey(descriptor.getCharacteristic()));
+                    callback.error("Failed to enable notification for " + descriptor.getCharacteristic().getUuid() + " status=" + status);
+                } else {
+                    stats.answered(currentCommand, true);
+                    if (PeripheralStats.unwrap(callback) instanceof NotificationGroup.Subscription) {
+                        ((NotificationGroup.Subscription) PeripheralStats.unwrap(callback)).subscribed();
+                    }
+                }
+            } else if (isCurrentCommand(BLECommand.REMOVE_NOTIFY)) {
+                // the callback was already removed, this only reports whether the peripheral stopped
+                CallbackContext callback = currentCommand.getCallbackContext();
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    callback.success();
+                } else {
+                    callback.error("Failed to disable notification for " + descriptor.getCharacteristic().getUuid() + " status=" + status);
+                }
+            } else {
+                LOG.w(TAG, "Ignoring late onDescriptorWrite %s", descriptor.getUuid());
+                return;
+            }
+        }
+
+        commandCompleted();
+    }
+
+    @Override
+    public void onDescriptorRead(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        super.onDescriptorRead(gatt, descriptor, status);
+        LOG.d(TAG, "onDescriptorRead %s", descriptor);
+
+        synchronized(this) {
+            if (!isCurrentCommand(BLECommand.READ_DESCRIPTOR)) {
+                LOG.w(TAG, "Ignoring late onDescriptorRead %s", descriptor.getUuid());
+                return;
+            }
+
+            if (readCallback != null) {
+                if (status == BluetoothGatt.GATT_SUCCESS) {
+                    stats.bytesIn(descriptor.getValue().length);
+                    readCallback.success(descriptor.getValue());
+                } else {
+                    readCallback.error("Error reading descriptor " + descriptor.getUuid() + " status=" + status);
+                }
+                readCallback = null;
+            }
+        }
+
         commandCompleted();
     }
 
@@ -473,6 +831,11 @@ public class Peripheral extends BluetoothGattCallback {
     public void onReadRemoteRssi(BluetoothGatt gatt, int rssi, int status) {
         super.onReadRemoteRssi(gatt, rssi, status);
         synchronized(this) {
+            if (!isCurrentCommand(BLECommand.READ_RSSI)) {
+                LOG.w(TAG, "Ignoring late onReadRemoteRssi");
+                return;
+            }
+
             if (readCallback != null) {
                 if (status == BluetoothGatt.GATT_SUCCESS) {
                     updateRssi(rssi);
@@ -498,7 +861,7 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
     // This seems way too complicated
-    private void registerNotifyCallback(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
+    private void registerNotifyCallback(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, NotificationOptions options) {
 
         if (gatt == null) {
             callbackContext.error("BluetoothGatt is null");
@@ -508,7 +871,7 @@ public class Peripheral extends BluetoothGattCallback {
 
         boolean success = false;
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
+        BluetoothGattService service = findService(serviceUUID);
 
         if (service == null) {
             callbackContext.error("Service " + serviceUUID + " not found.");
@@ -526,7 +889,7 @@ public class Peripheral extends BluetoothGattCallback {
 
         String key = generateHashKey(serviceUUID, characteristic);
 
-        notificationCallbacks.put(key, new SequentialCallbackContext(callbackContext));
+        notificationCallbacks.put(key, new SequentialCallbackContext(callbackContext, options));
 
         if (!gatt.setCharacteristicNotification(characteristic, true)) {
             callbackContext.error("Failed to register notification for " + characteristicUUID);
@@ -566,7 +929,7 @@ public class Peripheral extends BluetoothGattCallback {
             return;
         }
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
+        BluetoothGattService service = findService(serviceUUID);
 
         if (service == null) {
             callbackContext.error("Service " + serviceUUID + " not found.");
@@ -584,13 +947,19 @@ public class Peripheral extends BluetoothGattCallback {
 
         String key = generateHashKey(serviceUUID, characteristic);
 
-        notificationCallbacks.remove(key);
+        SequentialCallbackContext removed = notificationCallbacks.remove(key);
+        if (removed != null) {
+            removed.flush();
+        }
 
         if (gatt.setCharacteristicNotification(characteristic, false)) {
             BluetoothGattDescriptor descriptor = characteristic.getDescriptor(CLIENT_CHARACTERISTIC_CONFIGURATION_UUID);
             if (descriptor != null) {
                 descriptor.setValue(BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE);
-                gatt.writeDescriptor(descriptor);
+                if (gatt.writeDescriptor(descriptor)) {
+                    return; // completed in onDescriptorWrite
+                }
+                LOG.w(TAG, "Failed to clear client characteristic configuration for %s", characteristicUUID);
             }
             callbackContext.success();
         } else {
@@ -602,10 +971,111 @@ public class Peripheral extends BluetoothGattCallback {
 
     }
 
+    // index the services and characteristics, the first service with a UUID wins like gatt.getService
+    private void buildIndex(BluetoothGatt gatt) {
+        Map<UUID, BluetoothGattService> services = new HashMap<UUID, BluetoothGattService>();
+        Map<UUID, Map<UUID, BluetoothGattCharacteristic[]>> characteristics = new HashMap<UUID, Map<UUID, BluetoothGattCharacteristic[]>>();
+
+        for (BluetoothGattService service : gatt.getServices()) {
+            if (services.containsKey(service.getUuid())) {
+                continue;
+            }
+            services.put(service.getUuid(), service);
+
+            // one pass, same preferences as the scan methods: the first characteristic with the
+            // property, notify over indicate, and as a last resort the first one with the UUID
+            Map<UUID, BluetoothGattCharacteristic[]> serviceCharacteristics = new HashMap<UUID, BluetoothGattCharacteristic[]>();
+            Map<UUID, BluetoothGattCharacteristic> indicate = new HashMap<UUID, BluetoothGattCharacteristic>();
+            Map<UUID, BluetoothGattCharacteristic> first = new HashMap<UUID, BluetoothGattCharacteristic>();
+
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                UUID uuid = characteristic.getUuid();
+                int properties = characteristic.getProperties();
+
+                BluetoothGattCharacteristic[] matches = serviceCharacteristics.get(uuid);
+                if (matches == null) {
+                    matches = new BluetoothGattCharacteristic[4];
+                    serviceCharacteristics.put(uuid, matches);
+                    first.put(uuid, characteristic);
+                }
+                if (matches[INDEX_READ] == null && (properties & BluetoothGattCharacteristic.PROPERTY_READ) != 0) {
+                    matches[INDEX_READ] = characteristic;
+                }
+                if (matches[INDEX_WRITE] == null && (properties & BluetoothGattCharacteristic.PROPERTY_WRITE) != 0) {
+                    matches[INDEX_WRITE] = characteristic;
+                }
+                if (matches[INDEX_WRITE_NO_RESPONSE] == null && (properties & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0) {
+                    matches[INDEX_WRITE_NO_RESPONSE] = characteristic;
+                }
+                if (matches[INDEX_NOTIFY] == null && (properties & BluetoothGattCharacteristic.PROPERTY_NOTIFY) != 0) {
+                    matches[INDEX_NOTIFY] = characteristic;
+                }
+                if (!indicate.containsKey(uuid) && (properties & BluetoothGattCharacteristic.PROPERTY_INDICATE) != 0) {
+                    indicate.put(uuid, characteristic);
+                }
+            }
+
+            for (Map.Entry<UUID, BluetoothGattCharacteristic[]> entry : serviceCharacteristics.entrySet()) {
+                BluetoothGattCharacteristic[] matches = entry.getValue();
+                if (matches[INDEX_NOTIFY] == null) {
+                    matches[INDEX_NOTIFY] = indicate.get(entry.getKey());
+                }
+                for (int slot = 0; slot < matches.length; slot++) {
+                    if (matches[slot] == null) {
+                        matches[slot] = first.get(entry.getKey());
+                    }
+                }
+            }
+            characteristics.put(service.getUuid(), serviceCharacteristics);
+        }
+
+        serviceIndex = services;
+        characteristicIndex = characteristics;
+    }
+
+    private void clearIndex() {
+        serviceIndex = Collections.emptyMap();
+        characteristicIndex = Collections.emptyMap();
+    }
+
+    private BluetoothGattService findService(UUID serviceUUID) {
+        BluetoothGattService service = serviceIndex.get(serviceUUID);
+        if (service == null) {
+            // not discovered yet or services changed
+            service = gatt.getService(serviceUUID);
+        }
+        return service;
+    }
+
+    private BluetoothGattCharacteristic findIndexedCharacteristic(BluetoothGattService service, UUID characteristicUUID, int slot) {
+        Map<UUID, BluetoothGattCharacteristic[]> serviceCharacteristics = characteristicIndex.get(service.getUuid());
+        if (serviceCharacteristics == null || serviceIndex.get(service.getUuid()) != service) {
+            return null;
+        }
+        BluetoothGattCharacteristic[] matches = serviceCharacteristics.get(characteristicUUID);
+        return matches != null ? matches[slot] : null;
+    }
+
+    private BluetoothGattCharacteristic findNotifyCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
+        BluetoothGattCharacteristic characteristic = findIndexedCharacteristic(service, characteristicUUID, INDEX_NOTIFY);
+        return characteristic != null ? characteristic : scanNotifyCharacteristic(service, characteristicUUID);
+    }
+
+    private BluetoothGattCharacteristic findReadableCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
+        BluetoothGattCharacteristic characteristic = findIndexedCharacteristic(service, characteristicUUID, INDEX_READ);
+        return characteristic != null ? characteristic : scanReadableCharacteristic(service, characteristicUUID);
+    }
+
+    private BluetoothGattCharacteristic findWritableCharacteristic(BluetoothGattService service, UUID characteristicUUID, int writeType) {
+        int slot = writeType == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE ? INDEX_WRITE_NO_RESPONSE : INDEX_WRITE;
+        BluetoothGattCharacteristic characteristic = findIndexedCharacteristic(service, characteristicUUID, slot);
+        return characteristic != null ? characteristic : scanWritableCharacteristic(service, characteristicUUID, writeType);
+    }
+
     // Some devices reuse UUIDs across characteristics, so we can't use service.getCharacteristic(characteristicUUID)
     // instead check the UUID and properties for each characteristic in the service until we find the best match
     // This function prefers Notify over Indicate
-    private BluetoothGattCharacteristic findNotifyCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
+    private BluetoothGattCharacteristic scanNotifyCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
         BluetoothGattCharacteristic characteristic = null;
 
         // Check for Notify first
@@ -638,15 +1108,15 @@ public class Peripheral extends BluetoothGattCallback {
     private void readCharacteristic(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
 
         if (gatt == null) {
-            callbackContext.error("BluetoothGatt is null");
+            readFailed(callbackContext, "BluetoothGatt is null");
             commandCompleted();
             return;
         }
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
+        BluetoothGattService service = findService(serviceUUID);
 
         if (service == null) {
-            callbackContext.error("Service " + serviceUUID + " not found.");
+            readFailed(callbackContext, "Service " + serviceUUID + " not found.");
             commandCompleted();
             return;
         }
@@ -654,7 +1124,7 @@ public class Peripheral extends BluetoothGattCallback {
         BluetoothGattCharacteristic characteristic = findReadableCharacteristic(service, characteristicUUID);
 
         if (characteristic == null) {
-            callbackContext.error("Characteristic " + characteristicUUID + " not found.");
+            readFailed(callbackContext, "Characteristic " + characteristicUUID + " not found.");
             commandCompleted();
             return;
         }
@@ -667,7 +1137,105 @@ public class Peripheral extends BluetoothGattCallback {
                 success = true;
             } else {
                 readCallback = null;
-                callbackContext.error("Read failed");
+                readFailed(callbackContext, "Read failed");
+            }
+        }
+
+        if (!success) {
+            commandCompleted();
+        }
+
+    }
+
+    // fail the read and any identical reads that were coalesced into it
+    private void readFailed(CallbackContext callbackContext, String message) {
+        callbackContext.error(message);
+        synchronized(this) {
+            if (currentCommand != null) {
+                for (CallbackContext callback : currentCommand.takeCoalescedCallbacks()) {
+                    callback.error(message);
+                }
+            }
+        }
+    }
+
+    private void readDescriptor(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, UUID descriptorUUID) {
+
+        if (gatt == null) {
+            callbackContext.error("BluetoothGatt is null");
+            commandCompleted();
+            return;
+        }
+
+        BluetoothGattService service = findService(serviceUUID);
+
+        if (service == null) {
+            callbackContext.error("Service " + serviceUUID + " not found.");
+            commandCompleted();
+            return;
+        }
+
+        BluetoothGattDescriptor descriptor = findDescriptor(service, characteristicUUID, descriptorUUID);
+
+        if (descriptor == null) {
+            callbackContext.error("Descriptor " + descriptorUUID + " not found on " + characteristicUUID + ".");
+            commandCompleted();
+            return;
+        }
+
+        boolean success = false;
+
+        synchronized(this) {
+            readCallback = callbackContext;
+            if (gatt.readDescriptor(descriptor)) {
+                success = true;
+            } else {
+                readCallback = null;
+                callbackContext.error("Read descriptor failed");
+            }
+        }
+
+        if (!success) {
+            commandCompleted();
+        }
+
+    }
+
+    private void writeDescriptor(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, UUID descriptorUUID, byte[] data) {
+
+        if (gatt == null) {
+            callbackContext.error("BluetoothGatt is null");
+            commandCompleted();
+            return;
+        }
+
+        BluetoothGattService service = findService(serviceUUID);
+
+        if (service == null) {
+            callbackContext.error("Service " + serviceUUID + " not found.");
+            commandCompleted();
+            return;
+        }
+
+        BluetoothGattDescriptor descriptor = findDescriptor(service, characteristicUUID, descriptorUUID);
+
+        if (descriptor == null) {
+            callbackContext.error("Descriptor " + descriptorUUID + " not found on " + characteristicUUID + ".");
+            commandCompleted();
+            return;
+        }
+
+        boolean success = false;
+
+        descriptor.setValue(data);
+        synchronized(this) {
+            writeCallback = callbackContext;
+            if (gatt.writeDescriptor(descriptor)) {
+                stats.bytesOut(data.length);
+                success = true;
+            } else {
+                writeCallback = null;
+                callbackContext.error("Write descriptor failed");
             }
         }
 
@@ -677,6 +1245,19 @@ public class Peripheral extends BluetoothGattCallback {
 
     }
 
+    // characteristic UUIDs can be reused, use the first characteristic that has the descriptor
+    private BluetoothGattDescriptor findDescriptor(BluetoothGattService service, UUID characteristicUUID, UUID descriptorUUID) {
+        for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+            if (characteristicUUID.equals(characteristic.getUuid())) {
+                BluetoothGattDescriptor descriptor = characteristic.getDescriptor(descriptorUUID);
+                if (descriptor != null) {
+                    return descriptor;
+                }
+            }
+        }
+        return null;
+    }
+
     private void readRSSI(CallbackContext callbackContext) {
 
         if (gatt == null) {
@@ -706,7 +1287,7 @@ public class Peripheral extends BluetoothGattCallback {
 
     // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
     // and UUID of all characteristics instead of using service.getCharacteristic(characteristicUUID)
-    private BluetoothGattCharacteristic findReadableCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
+    private BluetoothGattCharacteristic scanReadableCharacteristic(BluetoothGattService service, UUID characteristicUUID) {
         BluetoothGattCharacteristic characteristic = null;
 
         int read = BluetoothGattCharacteristic.PROPERTY_READ;
@@ -735,7 +1316,7 @@ public class Peripheral extends BluetoothGattCallback {
             return;
         }
 
-        BluetoothGattService service = gatt.getService(serviceUUID);
+        BluetoothGattService service = findService(serviceUUID);
 
         if (service == null) {
             callbackContext.error("Service " + serviceUUID + " not found.");
@@ -759,6 +1340,14 @@ public class Peripheral extends BluetoothGattCallback {
             writeCallback = callbackContext;
 
             if (gatt.writeCharacteristic(characteristic)) {
+                stats.bytesOut(data.length);
+                if (isChunkedWrite(callbackContext)) {
+                    currentCommand.fragmentWritten();
+                }
+                success = true;
+            } else if (isChunkedWrite(callbackContext) && currentCommand.retryFragment() <= WRITE_STREAM_MAX_RETRIES) {
+                // the stack buffer is full, earlier fragments are already out so try again shortly
+                retryFragment(currentCommand, data);
                 success = true;
             } else {
                 writeCallback = null;
@@ -772,9 +1361,89 @@ public class Peripheral extends BluetoothGattCallback {
 
     }
 
+    private boolean isChunkedWrite(CallbackContext callbackContext) {
+        return currentCommand != null && currentCommand.isChunked() && currentCommand.getCallbackContext() == callbackContext;
+    }
+
+    private void retryFragment(final BLECommand command, final byte[] fragment) {
+        handler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                synchronized(Peripheral.this) {
+                    if (currentCommand != command) {
+                        return; // failed by the watchdog or the queue was cleaned up
+                    }
+                }
+                writeCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), fragment, command.getType());
+            }
+        }, WRITE_STREAM_RETRY_MILLIS);
+    }
+
+    // begin the transaction, the writes are prepared one after the other and executed together
+    private void reliableWrite(BLECommand transaction) {
+
+        if (gatt == null) {
+            transaction.getCallbackContext().error("BluetoothGatt is null");
+            commandCompleted();
+            return;
+        }
+
+        synchronized(this) {
+            writeCallback = transaction.getCallbackContext();
+            if (!gatt.beginReliableWrite()) {
+                writeCallback = null;
+                transaction.getCallbackContext().error("Failed to begin reliable write");
+                commandCompleted();
+                return;
+            }
+            writeReliableCharacteristic(transaction);
+        }
+    }
+
+    private void writeReliableCharacteristic(BLECommand transaction) {
+        synchronized(this) {
+            BLECommand write = transaction.nextWrite();
+
+            BluetoothGattService service = findService(write.getServiceUUID());
+            if (service == null) {
+                reliableWriteFailed("Service " + write.getServiceUUID() + " not found.");
+                return;
+            }
+
+            BluetoothGattCharacteristic characteristic = findWritableCharacteristic(service, write.getCharacteristicUUID(), BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            if (characteristic == null) {
+                reliableWriteFailed("Characteristic " + write.getCharacteristicUUID() + " not found.");
+                return;
+            }
+
+            characteristic.setValue(write.getData());
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            if (gatt.writeCharacteristic(characteristic)) {
+                stats.bytesOut(write.getData().length);
+            } else {
+                reliableWriteFailed("Write failed");
+            }
+        }
+    }
+
+    // abort so none of the prepared writes are applied
+    private void reliableWriteFailed(String message) {
+        synchronized(this) {
+            LOG.e(TAG, message);
+            if (gatt != null) {
+                gatt.abortReliableWrite();
+            }
+            if (writeCallback != null) {
+                writeCallback.error(message);
+                writeCallback = null;
+            }
+        }
+        commandCompleted();
+    }
+
     // Some peripherals re-use UUIDs for multiple characteristics so we need to check the properties
     // and UUID of all characteristics instead of using service.getCharacteristic(characteristicUUID)
-    private BluetoothGattCharacteristic findWritableCharacteristic(BluetoothGattService service, UUID characteristicUUID, int writeType) {
+    private BluetoothGattCharacteristic scanWritableCharacteristic(BluetoothGattService service, UUID characteristicUUID, int writeType) {
         BluetoothGattCharacteristic characteristic = null;
 
         // get write property
@@ -799,18 +1468,75 @@ public class Peripheral extends BluetoothGattCallback {
         return characteristic;
     }
 
-    public void queueRead(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
+    public void queueRead(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, int priority) {
+        // an identical read that is in flight or waiting in the same lane answers this one too,
+        // unless a write to the characteristic is queued after it. A write waiting in the other
+        // lane may run before this read, so it rules out any merge.
+        synchronized(this) {
+            BLECommand pending = null;
+            if (currentCommand != null && readCallback != null && currentCommand.isSameRead(serviceUUID, characteristicUUID)) {
+                pending = currentCommand;
+            }
+            ConcurrentLinkedQueue<BLECommand> queue = priority == BLECommand.PRIORITY_BULK ? bulkQueue : controlQueue;
+            for (BLECommand queued : queue) {
+                if (queued.isSameRead(serviceUUID, characteristicUUID)) {
+                    pending = queued;
+                } else if (queued.isWriteTo(serviceUUID, characteristicUUID)) {
+                    pending = null;
+                }
+            }
+            ConcurrentLinkedQueue<BLECommand> otherQueue = queue == bulkQueue ? controlQueue : bulkQueue;
+            for (BLECommand queued : otherQueue) {
+                if (pending != null && queued.isWriteTo(serviceUUID, characteristicUUID)) {
+                    pending = null;
+                    break;
+                }
+            }
+
+            if (pending != null) {
+                LOG.d(TAG, "Coalescing read %s", characteristicUUID);
+                pending.coalesce(callbackContext);
+
+                PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+                result.setKeepCallback(true);
+                callbackContext.sendPluginResult(result);
+                return;
+            }
+        }
+
         BLECommand command = new BLECommand(callbackContext, serviceUUID, characteristicUUID, BLECommand.READ);
+        command.setPriority(priority);
         queueCommand(command);
     }
 
-    public void queueWrite(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, byte[] data, int writeType) {
+    public void queueWrite(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, byte[] data, int writeType, int priority) {
         BLECommand command = new BLECommand(callbackContext, serviceUUID, characteristicUUID, data, writeType);
+        command.setPriority(priority);
+        queueCommand(command);
+    }
+
+    // writes is a list of WRITE_TYPE_DEFAULT commands that are applied atomically
+    public void queueReliableWrite(CallbackContext callbackContext, List<BLECommand> writes, int priority) {
+        BLECommand command = new BLECommand(callbackContext, writes, BLECommand.RELIABLE_WRITE);
+        command.setPriority(priority);
+        queueCommand(command);
+    }
+
+    // split data into fragments that fit the negotiated MTU, success is reported once all are written
+    public void queueChunkedWrite(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, byte[] data, int writeType, int priority) {
+        BLECommand command = new BLECommand(callbackContext, serviceUUID, characteristicUUID, data, writeType);
+        command.setPriority(priority);
+        command.setChunkSize(mtu - ATT_WRITE_HEADER_SIZE);
         queueCommand(command);
     }
 
     public void queueRegisterNotifyCallback(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
+        queueRegisterNotifyCallback(callbackContext, serviceUUID, characteristicUUID, new NotificationOptions());
+    }
+
+    public void queueRegisterNotifyCallback(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, NotificationOptions options) {
         BLECommand command = new BLECommand(callbackContext, serviceUUID, characteristicUUID, BLECommand.REGISTER_NOTIFY);
+        command.setNotificationOptions(options);
         queueCommand(command);
     }
 
@@ -820,19 +1546,222 @@ public class Peripheral extends BluetoothGattCallback {
     }
 
 
-    public void queueReadRSSI(CallbackContext callbackContext) {
+    public void queueReadDescriptor(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, UUID descriptorUUID, int priority) {
+        BLECommand command = new BLECommand(callbackContext, serviceUUID, characteristicUUID, BLECommand.READ_DESCRIPTOR);
+        command.setDescriptorUUID(descriptorUUID);
+        command.setPriority(priority);
+        queueCommand(command);
+    }
+
+    public void queueWriteDescriptor(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID, UUID descriptorUUID, byte[] data, int priority) {
+        BLECommand command = new BLECommand(callbackContext, serviceUUID, characteristicUUID, data, BLECommand.WRITE_DESCRIPTOR);
+        command.setDescriptorUUID(descriptorUUID);
+        command.setPriority(priority);
+        queueCommand(command);
+    }
+
+    public void queueReadRSSI(CallbackContext callbackContext, int priority) {
         BLECommand command = new BLECommand(callbackContext, null, null, BLECommand.READ_RSSI);
+        command.setPriority(priority);
         queueCommand(command);
     }
 
+    public void startWriteStream(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
+        synchronized(this) {
+            if (writeStream != null) {
+                callbackContext.error("Write stream already started");
+                return;
+            }
+            writeStream = new WriteStream(callbackContext, serviceUUID, characteristicUUID);
+        }
+
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    // data is acknowledged through the startWriteStream callback, not per call
+    public void writeStream(CallbackContext callbackContext, byte[] data) {
+        BLECommand command = null;
+
+        synchronized(this) {
+            if (writeStream == null || writeStream.closing) {
+                callbackContext.error("Write stream not started");
+                return;
+            }
+            // the stack silently truncates a write without response to the MTU
+            if (data.length > mtu - ATT_WRITE_HEADER_SIZE) {
+                callbackContext.error("Packet of " + data.length + " bytes exceeds the MTU, the limit is " + (mtu - ATT_WRITE_HEADER_SIZE) + " bytes");
+                return;
+            }
+            writeStream.add(data);
+            if (!writeStream.queued) {
+                writeStream.queued = true;
+                command = new BLECommand(writeStream.getCallbackContext(), writeStream.getServiceUUID(), writeStream.getCharacteristicUUID(), BLECommand.WRITE_STREAM);
+                command.setPriority(BLECommand.PRIORITY_BULK);
+            }
+        }
+
+        // Clear callback in JavaScript without actually calling it
+        PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
+        result.setKeepCallback(false);
+        callbackContext.sendPluginResult(result);
+
+        if (command != null) {
+            queueCommand(command);
+        }
+    }
+
+    // the stream completes once all pending packets are written
+    public void stopWriteStream(CallbackContext callbackContext) {
+        synchronized(this) {
+            if (writeStream == null || writeStream.closing) {
+                callbackContext.error("Write stream not started");
+                return;
+            }
+            writeStream.closing = true;
+            if (!writeStream.queued) {
+                writeStream.sendComplete();
+                writeStream = null;
+            }
+        }
+        callbackContext.success();
+    }
+
+    // Write the next packet of the stream. Called when the WRITE_STREAM command is processed and
+    // again from onCharacteristicWrite, so the stack always has the next packet as soon as it
+    // can take it.
+    private void writeStreamPacket() {
+        synchronized(this) {
+            if (!writeStreamProcessing) {
+                return; // stream was cleaned up while waiting for a retry
+            }
+
+            if (writeStream == null) {
+                writeStreamProcessing = false;
+                commandCompleted();
+                return;
+            }
+
+            if (gatt == null) {
+                writeStreamFailed("BluetoothGatt is null");
+                return;
+            }
+
+            byte[] data = writeStream.peek();
+            if (data == null) {
+                // drained, let the queue move on until the app writes more data
+                writeStreamProcessing = false;
+                writeStream.queued = false;
+                stats.answered(currentCommand, true);
+                if (writeStream.closing) {
+                    writeStream.sendComplete();
+                    writeStream = null;
+                } else {
+                    writeStream.sendProgress();
+                }
+                commandCompleted();
+                return;
+            }
+
+            if (writeStreamBurst >= WRITE_STREAM_BURST && !isQueueEmpty()) {
+                // give other commands a turn, the stream goes to the back of the queue
+                writeStreamProcessing = false;
+                writeStream.sendProgress();
+                BLECommand command = new BLECommand(writeStream.getCallbackContext(), writeStream.getServiceUUID(), writeStream.getCharacteristicUUID(), BLECommand.WRITE_STREAM);
+                command.setTimeout(getCommandTimeout(BLECommand.WRITE_STREAM));
+                command.setPriority(BLECommand.PRIORITY_BULK);
+                stats.answered(currentCommand, true);
+                stats.queued(command);
+                bulkQueue.add(command);
+                commandCompleted();
+                return;
+            }
+
+            BluetoothGattService service = findService(writeStream.getServiceUUID());
+            if (service == null) {
+                writeStreamFailed("Service " + writeStream.getServiceUUID() + " not found.");
+                return;
+            }
+
+            BluetoothGattCharacteristic characteristic = findWritableCharacteristic(service, writeStream.getCharacteristicUUID(), BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+            if (characteristic == null) {
+                writeStreamFailed("Characteristic " + writeStream.getCharacteristicUUID() + " not found.");
+                return;
+            }
+
+            characteristic.setValue(data);
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+
+            if (gatt.writeCharacteristic(characteristic)) {
+                stats.bytesOut(data.length);
+                writeStream.packetWritten();
+                writeStreamBurst++;
+                if (currentCommand != null) {
+                    startCommandTimer(currentCommand); // the deadline applies to each packet
+                }
+            } else if (writeStream.retry() <= WRITE_STREAM_MAX_RETRIES) {
+                // the stack buffer is full, try again shortly
+                handler.postDelayed(writeStreamRetry, WRITE_STREAM_RETRY_MILLIS);
+            } else {
+                writeStreamFailed("Write stream failed, stack is busy");
+            }
+        }
+    }
+
+    private void writeStreamFailed(String message) {
+        synchronized(this) {
+            LOG.e(TAG, message);
+            handler.removeCallbacks(writeStreamRetry);
+            boolean processing = writeStreamProcessing;
+            writeStreamProcessing = false;
+            if (writeStream != null) {
+                writeStream.sendError(message);
+                writeStream = null;
+            }
+            if (processing) {
+                stats.answered(currentCommand, false);
+                commandCompleted();
+            }
+        }
+    }
+
     public void queueCleanup() {
         bleProcessing.set(true); // Stop anything else trying to process
-        for (BLECommand command = commandQueue.poll(); command != null; command = commandQueue.poll()) {
-            command.getCallbackContext().error("Peripheral Disconnected");
+        for (BLECommand command = pollCommand(); command != null; command = pollCommand()) {
+            if (command.getType() != BLECommand.WRITE_STREAM) {
+                command.getCallbackContext().error("Peripheral Disconnected");
+            }
+            for (CallbackContext callback : command.takeCoalescedCallbacks()) {
+                callback.error("Peripheral Disconnected");
+            }
+        }
+        stats.queueCleared();
+        synchronized(this) {
+            if (currentCommand != null) {
+                for (CallbackContext callback : currentCommand.takeCoalescedCallbacks()) {
+                    callback.error("Peripheral Disconnected");
+                }
+            }
+            cancelCommandTimer();
+            currentCommand = null;
+            handler.removeCallbacks(writeStreamRetry);
+            writeStreamProcessing = false;
+            if (writeStream != null) {
+                writeStream.sendError("Peripheral Disconnected");
+                writeStream = null;
+            }
         }
         bleProcessing.set(false); // Now re-allow processing
     }
 
+    // deliver notifications still waiting in a batch
+    private void flushNotifications() {
+        for (SequentialCallbackContext callback : notificationCallbacks.values()) {
+            callback.flush();
+        }
+    }
+
     private void callbackCleanup() {
         synchronized(this) {
             if (readCallback != null) {
@@ -848,10 +1777,152 @@ public class Peripheral extends BluetoothGattCallback {
         }
     }
 
+    // timeout in milliseconds for a command type, 0 disables the timeout
+    public void setCommandTimeout(int type, long timeout) {
+        synchronized(this) {
+            commandTimeouts.put(type, timeout);
+        }
+    }
+
+    public long getCommandTimeout(int type) {
+        synchronized(this) {
+            Long timeout = commandTimeouts.get(type);
+            return timeout != null ? timeout : BLECommand.defaultTimeout(type);
+        }
+    }
+
+    public JSONObject getCommandTimeoutsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            for (int type : BLECommand.TYPES) {
+                json.put(BLECommand.typeName(type), getCommandTimeout(type));
+            }
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    // stats since the last reset, including the timeout counts
+    public JSONObject getStatsJSON(boolean reset) {
+        JSONObject json = stats.asJSONObject();
+        try {
+            json.put("timeouts", getTimeoutCountsJSON());
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+
+        if (reset) {
+            stats.reset();
+            synchronized(this) {
+                timeoutCounts.clear();
+            }
+        }
+        return json;
+    }
+
+    // number of commands failed by the watchdog, per type and in total
+    public JSONObject getTimeoutCountsJSON() {
+        JSONObject json = new JSONObject();
+        try {
+            int total = 0;
+            synchronized(this) {
+                for (int type : BLECommand.TYPES) {
+                    Integer count = timeoutCounts.get(type);
+                    int value = count != null ? count : 0;
+                    json.put(BLECommand.typeName(type), value);
+                    total += value;
+                }
+            }
+            json.put("total", total);
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    // must be called while holding the lock
+    private boolean isCurrentCommand(int type) {
+        return currentCommand != null && currentCommand.getType() == type;
+    }
+
+    private void startCommandTimer(final BLECommand command) {
+        synchronized(this) {
+            cancelCommandTimer();
+            if (command.getTimeout() > 0) {
+                commandTimer = new Runnable() {
+                    @Override
+                    public void run() {
+                        commandTimedOut(command);
+                    }
+                };
+                handler.postDelayed(commandTimer, command.getTimeout());
+            }
+        }
+    }
+
+    private void cancelCommandTimer() {
+        synchronized(this) {
+            if (commandTimer != null) {
+                handler.removeCallbacks(commandTimer);
+                commandTimer = null;
+            }
+        }
+    }
+
+    // the peripheral never answered, fail the command and move the queue on
+    private void commandTimedOut(BLECommand command) {
+        synchronized(this) {
+            if (currentCommand != command) {
+                return;
+            }
+
+            int type = command.getType();
+            String message = BLECommand.typeName(type) + " timed out after " + command.getTimeout() + " ms";
+            LOG.w(TAG, "Command %s timed out", command);
+
+            Integer count = timeoutCounts.get(type);
+            timeoutCounts.put(type, count != null ? count + 1 : 1);
+
+            if (type == BLECommand.WRITE_STREAM) {
+                writeStreamFailed(message);
+                return;
+            }
+
+            if (type == BLECommand.RELIABLE_WRITE) {
+                reliableWriteFailed(message);
+                return;
+            }
+
+            if (type == BLECommand.REGISTER_NOTIFY) {
+                String prefix = command.getServiceUUID() + "|" + command.getCharacteristicUUID() + "|";
+                for (Iterator<String> iterator = notificationCallbacks.keySet().iterator(); iterator.hasNext(); ) {
+                    if (iterator.next().startsWith(prefix)) {
+                        iterator.remove();
+                    }
+                }
+            }
+
+            readCallback = null;
+            writeCallback = null;
+            command.getCallbackContext().error(message);
+            for (CallbackContext callback : command.takeCoalescedCallbacks()) {
+                callback.error(message);
+            }
+            commandCompleted();
+        }
+    }
+
     // add a new command to the queue
     private void queueCommand(BLECommand command) {
         LOG.d(TAG,"Queuing Command %s", command);
-        commandQueue.add(command);
+        command.setTimeout(getCommandTimeout(command.getType()));
+        stats.queued(command);
+        if (command.getPriority() == BLECommand.PRIORITY_BULK) {
+            bulkQueue.add(command);
+        } else {
+            controlQueue.add(command);
+        }
 
         PluginResult result = new PluginResult(PluginResult.Status.NO_RESULT);
         result.setKeepCallback(true);
@@ -863,36 +1934,89 @@ public class Peripheral extends BluetoothGattCallback {
     // command finished, queue the next command
     private void commandCompleted() {
         LOG.d(TAG,"Processing Complete");
+        synchronized(this) {
+            cancelCommandTimer();
+            currentCommand = null;
+        }
         bleProcessing.set(false);
         processCommands();
     }
 
+    private boolean isQueueEmpty() {
+        return controlQueue.isEmpty() && bulkQueue.isEmpty();
+    }
+
+    // next command to process, control commands first unless bulk commands have waited too long.
+    // Only control commands dispatched while bulk work waits count towards the limit.
+    private BLECommand pollCommand() {
+        if (bulkQueue.isEmpty()) {
+            controlCommandsInARow = 0;
+            return controlQueue.poll();
+        }
+        if (controlCommandsInARow < BULK_STARVATION_LIMIT) {
+            BLECommand command = controlQueue.poll();
+            if (command != null) {
+                controlCommandsInARow++;
+                return command;
+            }
+        }
+        controlCommandsInARow = 0;
+        return bulkQueue.poll();
+    }
+
     // process the queue
     private void processCommands() {
         final boolean canProcess = bleProcessing.compareAndSet(false, true);
         if (!canProcess) { return; }
         LOG.d(TAG,"Processing Commands");
 
-        BLECommand command = commandQueue.poll();
+        BLECommand command = pollCommand();
         if (command != null) {
+            synchronized(this) {
+                currentCommand = command;
+            }
+            stats.dispatched(command);
+            startCommandTimer(command);
+
+            if (command.isChunked()) {
+                // the MTU may have been negotiated while the write was queued
+                command.setChunkSize(mtu - ATT_WRITE_HEADER_SIZE);
+            }
+
             if (command.getType() == BLECommand.READ) {
                 LOG.d(TAG,"Read %s", command.getCharacteristicUUID());
                 readCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID());
             } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT) {
                 LOG.d(TAG,"Write %s", command.getCharacteristicUUID());
-                writeCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getType());
+                writeCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.nextFragment(), command.getType());
             } else if (command.getType() == BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE) {
                 LOG.d(TAG,"Write No Response %s", command.getCharacteristicUUID());
-                writeCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.getData(), command.getType());
+                writeCharacteristic(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.nextFragment(), command.getType());
             } else if (command.getType() == BLECommand.REGISTER_NOTIFY) {
                 LOG.d(TAG,"Register Notify %s", command.getCharacteristicUUID());
-                registerNotifyCallback(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID());
+                registerNotifyCallback(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.getNotificationOptions());
             } else if (command.getType() == BLECommand.REMOVE_NOTIFY) {
                 LOG.d(TAG,"Remove Notify %s", command.getCharacteristicUUID());
                 removeNotifyCallback(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID());
             } else if (command.getType() == BLECommand.READ_RSSI) {
                 LOG.d(TAG,"Read RSSI");
                 readRSSI(command.getCallbackContext());
+            } else if (command.getType() == BLECommand.READ_DESCRIPTOR) {
+                LOG.d(TAG,"Read Descriptor %s", command.getDescriptorUUID());
+                readDescriptor(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.getDescriptorUUID());
+            } else if (command.getType() == BLECommand.WRITE_DESCRIPTOR) {
+                LOG.d(TAG,"Write Descriptor %s", command.getDescriptorUUID());
+                writeDescriptor(command.getCallbackContext(), command.getServiceUUID(), command.getCharacteristicUUID(), command.getDescriptorUUID(), command.getData());
+            } else if (command.getType() == BLECommand.RELIABLE_WRITE) {
+                LOG.d(TAG,"Reliable Write");
+                reliableWrite(command);
+            } else if (command.getType() == BLECommand.WRITE_STREAM) {
+                LOG.d(TAG,"Write Stream %s", command.getCharacteristicUUID());
+                synchronized(this) {
+                    writeStreamProcessing = true;
+                    writeStreamBurst = 0;
+                }
+                writeStreamPacket();
             } else {
                 // this shouldn't happen
                 bleProcessing.set(false);
@@ -905,7 +2029,8 @@ public class Peripheral extends BluetoothGattCallback {
 
     }
 
-    private String generateHashKey(BluetoothGattCharacteristic characteristic) {
+    // package-private for the notification lookup benchmark
+    String generateHashKey(BluetoothGattCharacteristic characteristic) {
         return generateHashKey(characteristic.getService().getUuid(), characteristic);
     }
 
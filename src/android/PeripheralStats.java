@@ -0,0 +1,242 @@
+package com.megster.cordova.ble.central;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of one Peripheral, returned by getStats.
+ * Queue latency runs from queueCommand to dispatch, callback latency from dispatch
+ * to the first result sent to the command's callback. The byte and notification counters
+ * are atomics so onCharacteristicChanged never waits for the stats lock.
+ */
+class PeripheralStats {
+
+    private static final int QUEUED = 0;
+    private static final int COMPLETED = 1;
+    private static final int FAILED = 2;
+
+    private final Map<Integer, long[]> operations = new HashMap<Integer, long[]>();
+    private final Histogram queueLatency = new Histogram();
+    private final Histogram callbackLatency = new Histogram();
+
+    private long since;
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong notifications = new AtomicLong();
+    private int queueDepth;
+    private int queueHighWater;
+
+    // notifications per second, counted over the last complete second
+    private final AtomicLong windowStart = new AtomicLong();
+    private final AtomicInteger windowCount = new AtomicInteger();
+    private volatile int notificationsPerSecond;
+
+    public PeripheralStats() {
+        reset();
+    }
+
+    public synchronized void reset() {
+        operations.clear();
+        queueLatency.reset();
+        callbackLatency.reset();
+        since = System.currentTimeMillis();
+        bytesIn.set(0);
+        bytesOut.set(0);
+        notifications.set(0);
+        queueHighWater = queueDepth;
+        windowStart.set(since);
+        windowCount.set(0);
+        notificationsPerSecond = 0;
+    }
+
+    // wraps the callback of the command so its first result is counted, write streams
+    // report through their own callback and call answered themselves
+    public synchronized void queued(BLECommand command) {
+        count(command.getType(), QUEUED);
+        queueDepth++;
+        queueHighWater = Math.max(queueHighWater, queueDepth);
+        command.setQueuedAt(System.nanoTime());
+        if (command.getCallbackContext() != null && command.getType() != BLECommand.WRITE_STREAM) {
+            command.setCallbackContext(new TrackedCallbackContext(command));
+        }
+    }
+
+    public synchronized void dispatched(BLECommand command) {
+        queueDepth = Math.max(0, queueDepth - 1);
+        long now = System.nanoTime();
+        queueLatency.add(now - command.getQueuedAt());
+        command.setDispatchedAt(now);
+    }
+
+    // commands were removed from the queue without being dispatched
+    public synchronized void queueCleared() {
+        queueDepth = 0;
+    }
+
+    // only the first answer of a command counts
+    public synchronized void answered(BLECommand command, boolean success) {
+        if (command.isAnswered()) {
+            return;
+        }
+        command.setAnswered(true);
+        count(command.getType(), success ? COMPLETED : FAILED);
+        if (command.getDispatchedAt() != 0) {
+            callbackLatency.add(System.nanoTime() - command.getDispatchedAt());
+        }
+    }
+
+    public void bytesIn(int length) {
+        bytesIn.addAndGet(length);
+    }
+
+    public void bytesOut(int length) {
+        bytesOut.addAndGet(length);
+    }
+
+    public void notification(int length) {
+        notifications.incrementAndGet();
+        bytesIn.addAndGet(length);
+
+        long now = System.currentTimeMillis();
+        long start = windowStart.get();
+        if (now - start >= 1000 && windowStart.compareAndSet(start, now)) {
+            // a window without notifications in between means the rate dropped to 0
+            int count = windowCount.getAndSet(0);
+            notificationsPerSecond = now - start < 2000 ? count : 0;
+        }
+        windowCount.incrementAndGet();
+    }
+
+    private void count(int type, int index) {
+        long[] counts = operations.get(type);
+        if (counts == null) {
+            counts = new long[3];
+            operations.put(type, counts);
+        }
+        counts[index]++;
+    }
+
+    public synchronized JSONObject asJSONObject() {
+        JSONObject json = new JSONObject();
+        try {
+            putJSON(json);
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    private void putJSON(JSONObject json) throws JSONException {
+        long now = System.currentTimeMillis();
+        json.put("since", since);
+        json.put("elapsed", now - since);
+
+        JSONObject operationsJSON = new JSONObject();
+        for (int type : BLECommand.TYPES) {
+            long[] counts = operations.get(type);
+            if (counts != null) {
+                JSONObject countsJSON = new JSONObject();
+                countsJSON.put("queued", counts[QUEUED]);
+                countsJSON.put("completed", counts[COMPLETED]);
+                countsJSON.put("failed", counts[FAILED]);
+                operationsJSON.put(BLECommand.typeName(type), countsJSON);
+            }
+        }
+        json.put("operations", operationsJSON);
+
+        json.put("bytesIn", bytesIn.get());
+        json.put("bytesOut", bytesOut.get());
+        json.put("notifications", notifications.get());
+        json.put("notificationsPerSecond", now - windowStart.get() < 2000 ? notificationsPerSecond : 0);
+        json.put("queueDepth", queueDepth);
+        json.put("queueHighWater", queueHighWater);
+        json.put("queueLatency", queueLatency.asJSONObject());
+        json.put("callbackLatency", callbackLatency.asJSONObject());
+    }
+
+    // the callback the app passed in, without the stats wrapper
+    static CallbackContext unwrap(CallbackContext callbackContext) {
+        if (callbackContext instanceof TrackedCallbackContext) {
+            return ((TrackedCallbackContext) callbackContext).delegate;
+        }
+        return callbackContext;
+    }
+
+    private class TrackedCallbackContext extends CallbackContext {
+        private final BLECommand command;
+        private final CallbackContext delegate;
+
+        TrackedCallbackContext(BLECommand command) {
+            super(command.getCallbackContext().getCallbackId(), null);
+            this.command = command;
+            this.delegate = command.getCallbackContext();
+        }
+
+        @Override
+        public void sendPluginResult(PluginResult pluginResult) {
+            if (pluginResult.getStatus() != PluginResult.Status.NO_RESULT.ordinal() && !command.isAnswered()) {
+                answered(command, pluginResult.getStatus() == PluginResult.Status.OK.ordinal());
+            }
+            delegate.sendPluginResult(pluginResult);
+        }
+    }
+
+    /**
+     * Power of two millisecond buckets, the first counts below 1 ms and the last
+     * everything from 16384 ms on.
+     */
+    private static class Histogram {
+        private static final int BUCKETS = 16;
+
+        private final long[] buckets = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        void add(long nanos) {
+            long millis = nanos / 1000000;
+            int bucket = millis <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+            buckets[bucket]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = 0;
+            }
+            count = 0;
+            totalNanos = 0;
+            maxNanos = 0;
+        }
+
+        // buckets[i] counts latencies below bounds[i] milliseconds, the last one is unbounded
+        JSONObject asJSONObject() throws JSONException {
+            JSONObject json = new JSONObject();
+            json.put("count", count);
+            json.put("mean", count > 0 ? totalNanos / count / 1e6 : 0);
+            json.put("max", maxNanos / 1e6);
+
+            JSONArray bounds = new JSONArray();
+            JSONArray counts = new JSONArray();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (i < BUCKETS - 1) {
+                    bounds.put(1L << i);
+                }
+                counts.put(buckets[i]);
+            }
+            json.put("bounds", bounds);
+            json.put("buckets", counts);
+            return json;
+        }
+    }
+}
@@ -14,24 +14,86 @@
 
 package com.megster.cordova.ble.central;
 
+import android.os.Handler;
+import android.os.Looper;
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import java.io.ByteArrayOutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SequentialCallbackContext {
-    private int sequence;
+    // compact frames start with the sequence number, plus the dropped count for buffered subscriptions
+    static final int COMPACT_HEADER_SIZE = 4;
+    static final int COMPACT_BUFFERED_HEADER_SIZE = 8;
+
+    private final AtomicInteger sequence = new AtomicInteger();
     private CallbackContext context;
 
+    // batching, pending notifications are flushed as one result
+    private NotificationOptions options;
+    private Handler handler;
+    private ByteArrayOutputStream pendingData;
+    private JSONArray pendingLengths;
+    private JSONArray pendingSequences;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            sendBatch();
+        }
+    };
+
+    // ring buffer, notifications wait here until JavaScript has credit for them. At most bufferSize
+    // notifications are sent and not yet acknowledged, so a slow WebView fills the ring instead of
+    // the bridge queue and the overflow policy applies
+    private NotificationRing ring;
+    private boolean drainPosted = false;
+    private final Object drainLock = new Object();
+    private int unacknowledged = 0; // guarded by drainLock
+    private final Runnable drainTask = new Runnable() {
+        @Override
+        public void run() {
+            drain(false);
+        }
+    };
+
+    // decimation, only touched by the GATT callback thread
+    private int decimationCount = 0;
+
+    // change-only filter, compares with the last value passed on, guarded by this
+    private byte[] lastValue;
+    private long lastForwarded;
+
+    // throttling, the latest value waits for the end of the interval
+    private byte[] throttled;
+    private long lastEmitted;
+    private final Runnable throttleTask = new Runnable() {
+        @Override
+        public void run() {
+            emitThrottled();
+        }
+    };
+
     public SequentialCallbackContext(CallbackContext context) {
+        this(context, new NotificationOptions());
+    }
+
+    public SequentialCallbackContext(CallbackContext context, NotificationOptions options) {
         this.context = context;
-        this.sequence = 0;
+        this.options = options;
+        if (options.isBuffered()) {
+            this.ring = new NotificationRing(options.getBufferSize(), options.getOverflow());
+        }
+        if (options.isBatching() || options.isBuffered() || options.getThrottleInterval() > 0) {
+            this.handler = new Handler(Looper.getMainLooper());
+        }
     }
 
     private int getNextSequenceNumber() {
-        synchronized(this) {
-            return this.sequence++; 
-        }
+        return this.sequence.getAndIncrement();
     }
 
     public PluginResult createSequentialResult(byte data[]) {
@@ -46,10 +108,235 @@ public class SequentialCallbackContext {
         return new PluginResult(PluginResult.Status.OK, resultList);
     }
 
+    // decimation and throttling come first, the change-only filter sees the values they let through
     public void sendSequentialResult(byte data[]) {
-        PluginResult result = this.createSequentialResult(data);
+        if (isDecimated()) {
+            return;
+        }
+
+        if (options.getThrottleInterval() > 0) {
+            throttle(data);
+            return;
+        }
+
+        if (!isUnchanged(data)) {
+            emit(data);
+        }
+    }
+
+    // keep every Nth notification
+    private boolean isDecimated() {
+        if (options.getDecimation() <= 1) {
+            return false;
+        }
+        if (decimationCount++ % options.getDecimation() != 0) {
+            return true;
+        }
+        decimationCount = 1;
+        return false;
+    }
+
+    // at most one value per interval, a value arriving early replaces the one waiting
+    private void throttle(byte data[]) {
+        synchronized(this) {
+            long wait = lastEmitted + options.getThrottleInterval() - System.currentTimeMillis();
+            if (wait > 0 || throttled != null) {
+                if (throttled == null) {
+                    handler.postDelayed(throttleTask, wait);
+                }
+                throttled = data;
+                return;
+            }
+            if (isUnchanged(data)) {
+                return;
+            }
+            lastEmitted = System.currentTimeMillis();
+        }
+        emit(data);
+    }
+
+    private void emitThrottled() {
+        byte[] data;
+        synchronized(this) {
+            handler.removeCallbacks(throttleTask);
+            data = throttled;
+            throttled = null;
+            if (data == null || isUnchanged(data)) {
+                return;
+            }
+            lastEmitted = System.currentTimeMillis();
+        }
+        emit(data);
+    }
+
+    private void emit(byte data[]) {
+        if (options.getSchema() != null) {
+            data = options.getSchema().decode(data);
+        }
+
+        if (ring != null) {
+            ring.offer(data, this.getNextSequenceNumber());
+            postDrain();
+            return;
+        }
+
+        if (options.isBatching()) {
+            addToBatch(data, this.getNextSequenceNumber());
+            return;
+        }
+
+        PluginResult result;
+        if (options.isCompact()) {
+            result = createCompactResult(data, this.getNextSequenceNumber(), -1);
+        } else {
+            result = this.createSequentialResult(data);
+        }
         result.setKeepCallback(true);
 
         this.context.sendPluginResult(result);
     }
+
+    // a repeated value is dropped without using a sequence number, unless the heartbeat is due
+    private synchronized boolean isUnchanged(byte data[]) {
+        if (!options.isChangesOnly()) {
+            return false;
+        }
+
+        long now = System.currentTimeMillis();
+        long heartbeat = options.getHeartbeat();
+        if (lastValue != null && Arrays.equals(lastValue, data) && (heartbeat == 0 || now - lastForwarded < heartbeat)) {
+            return true;
+        }
+
+        lastValue = data;
+        lastForwarded = now;
+        return false;
+    }
+
+    // one ArrayBuffer per notification, little endian header followed by the payload
+    private PluginResult createCompactResult(byte data[], int sequence, long dropped) {
+        int headerSize = dropped < 0 ? COMPACT_HEADER_SIZE : COMPACT_BUFFERED_HEADER_SIZE;
+        byte[] frame = new byte[headerSize + data.length];
+        putInt(frame, 0, sequence);
+        if (dropped >= 0) {
+            putInt(frame, 4, (int) dropped);
+        }
+        System.arraycopy(data, 0, frame, headerSize, data.length);
+        return new PluginResult(PluginResult.Status.OK, frame);
+    }
+
+    private static void putInt(byte[] frame, int offset, int value) {
+        frame[offset] = (byte) value;
+        frame[offset + 1] = (byte) (value >>> 8);
+        frame[offset + 2] = (byte) (value >>> 16);
+        frame[offset + 3] = (byte) (value >>> 24);
+    }
+
+    private void postDrain() {
+        synchronized(this) {
+            if (!drainPosted) {
+                drainPosted = true;
+                handler.post(drainTask);
+            }
+        }
+    }
+
+    // JavaScript received count more notifications, that many more can leave the ring
+    public void acknowledge(int count) {
+        if (ring == null) {
+            return;
+        }
+        synchronized(drainLock) {
+            unacknowledged = Math.max(0, unacknowledged - count);
+        }
+        postDrain();
+    }
+
+    // runs on the main thread and sends what the credit allows, a final flush sends everything
+    private void drain(boolean all) {
+        synchronized(this) {
+            drainPosted = false;
+        }
+
+        // flush can drain from another thread, keep the notifications in order
+        synchronized(drainLock) {
+            int[] sequence = new int[1];
+            byte[] data;
+            while ((all || unacknowledged < options.getBufferSize()) && (data = ring.poll(sequence)) != null) {
+                unacknowledged++;
+                if (options.isBatching()) {
+                    addToBatch(data, sequence[0]);
+                } else if (options.isCompact()) {
+                    PluginResult result = createCompactResult(data, sequence[0], ring.getDropped());
+                    result.setKeepCallback(true);
+                    this.context.sendPluginResult(result);
+                } else {
+                    List<PluginResult> resultList = new ArrayList<PluginResult>(3);
+                    resultList.add(new PluginResult(PluginResult.Status.OK, data));
+                    resultList.add(new PluginResult(PluginResult.Status.OK, sequence[0]));
+                    resultList.add(new PluginResult(PluginResult.Status.OK, (int) ring.getDropped()));
+
+                    PluginResult result = new PluginResult(PluginResult.Status.OK, resultList);
+                    result.setKeepCallback(true);
+                    this.context.sendPluginResult(result);
+                }
+            }
+        }
+    }
+
+    private void addToBatch(byte data[], int sequence) {
+        synchronized(this) {
+            if (pendingData == null) {
+                pendingData = new ByteArrayOutputStream();
+                pendingLengths = new JSONArray();
+                pendingSequences = new JSONArray();
+                handler.postDelayed(flushTask, options.getBatchInterval());
+            }
+
+            pendingData.write(data, 0, data.length);
+            pendingLengths.put(data.length);
+            pendingSequences.put(sequence);
+
+            if (options.getBatchBytes() > 0 && pendingData.size() >= options.getBatchBytes()) {
+                sendBatch();
+            }
+        }
+    }
+
+    // delivers everything still held back: the throttled value, the ring and the pending batch
+    public void flush() {
+        if (handler != null) {
+            emitThrottled();
+        }
+        if (ring != null && !ring.isEmpty()) {
+            drain(true);
+        }
+        sendBatch();
+    }
+
+    // sends the pending batch as [payloads, lengths, sequence numbers], buffered subscriptions
+    // add the number of dropped notifications
+    private void sendBatch() {
+        synchronized(this) {
+            if (pendingData == null) {
+                return;
+            }
+            handler.removeCallbacks(flushTask);
+
+            List<PluginResult> resultList = new ArrayList<PluginResult>(4);
+            resultList.add(new PluginResult(PluginResult.Status.OK, pendingData.toByteArray()));
+            resultList.add(new PluginResult(PluginResult.Status.OK, pendingLengths));
+            resultList.add(new PluginResult(PluginResult.Status.OK, pendingSequences));
+            if (ring != null) {
+                resultList.add(new PluginResult(PluginResult.Status.OK, (int) ring.getDropped()));
+            }
+            pendingData = null;
+            pendingLengths = null;
+            pendingSequences = null;
+
+            PluginResult result = new PluginResult(PluginResult.Status.OK, resultList);
+            result.setKeepCallback(true);
+            this.context.sendPluginResult(result);
+        }
+    }
 }
\ No newline at end of file
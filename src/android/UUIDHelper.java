@@ -15,34 +15,52 @@
 package com.megster.cordova.ble.central;
 
 import java.util.UUID;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class UUIDHelper {
 
     // base UUID used to build 128 bit Bluetooth UUIDs
     public static final String UUID_BASE = "0000XXXX-0000-1000-8000-00805f9b34fb";
-    // reuse pattern
-    private static final Pattern pattern = Pattern.compile("0000(.{4})-0000-1000-8000-00805f9b34fb", Pattern.CASE_INSENSITIVE);
+    // bits of the base UUID, the short UUID goes in the top 32 bits of BASE_MSB
+    private static final long BASE_MSB = 0x0000000000001000L;
+    private static final long BASE_LSB = 0x800000805f9b34fbL;
 
-    // handle 16 and 128 bit UUIDs
+    // handle 16, 32 and 128 bit UUIDs
     public static UUID uuidFromString(String uuid) {
-
-        if (uuid.length() == 4) {
-            uuid = UUID_BASE.replace("XXXX", uuid);
+        if (uuid.length() == 4 || uuid.length() == 8) {
+            long shortUUID = parseHex(uuid);
+            if (shortUUID < 0) {
+                throw new IllegalArgumentException("Invalid UUID string: " + uuid);
+            }
+            return new UUID(BASE_MSB | (shortUUID << 32), BASE_LSB);
         }
         return UUID.fromString(uuid);
     }
 
     // return 16 bit UUIDs where possible
     public static String uuidToString(UUID uuid) {
-        String longUUID = uuid.toString();
-        Matcher matcher = pattern.matcher(longUUID);
-        if (matcher.matches()) {
+        long msb = uuid.getMostSignificantBits();
+        if (uuid.getLeastSignificantBits() == BASE_LSB && (msb & 0xFFFF0000FFFFFFFFL) == BASE_MSB) {
             // 16 bit UUID
-            return matcher.group(1);
+            char[] hex = new char[4];
+            for (int i = 0; i < 4; i++) {
+                hex[i] = Character.forDigit((int) (msb >>> (44 - 4 * i)) & 0xF, 16);
+            }
+            return new String(hex);
         } else {
-            return longUUID;
+            return uuid.toString();
+        }
+    }
+
+    // -1 unless every character is a hex digit
+    private static long parseHex(String hex) {
+        long value = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
         }
+        return value;
     }
 }
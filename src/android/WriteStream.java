@@ -0,0 +1,109 @@
+package com.megster.cordova.ble.central;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Holds the state of a write without response stream. Packets are pushed back to back
+ * by the Peripheral without a JavaScript round trip per packet. Only progress and
+ * completion are reported to the callback.
+ */
+class WriteStream {
+
+    private CallbackContext callbackContext;
+    private UUID serviceUUID;
+    private UUID characteristicUUID;
+    private ConcurrentLinkedQueue<byte[]> packets = new ConcurrentLinkedQueue<byte[]>();
+
+    private long bytesWritten = 0;
+    private long packetsWritten = 0;
+    private int retries = 0;
+
+    // true while a WRITE_STREAM command is in the command queue or being processed
+    boolean queued = false;
+    // true once the app asked to stop, the stream completes when the packets are drained
+    boolean closing = false;
+
+    public WriteStream(CallbackContext callbackContext, UUID serviceUUID, UUID characteristicUUID) {
+        this.callbackContext = callbackContext;
+        this.serviceUUID = serviceUUID;
+        this.characteristicUUID = characteristicUUID;
+    }
+
+    public CallbackContext getCallbackContext() {
+        return callbackContext;
+    }
+
+    public UUID getServiceUUID() {
+        return serviceUUID;
+    }
+
+    public UUID getCharacteristicUUID() {
+        return characteristicUUID;
+    }
+
+    public void add(byte[] data) {
+        packets.add(data);
+    }
+
+    public byte[] peek() {
+        return packets.peek();
+    }
+
+    public boolean isEmpty() {
+        return packets.isEmpty();
+    }
+
+    // the packet at the head of the queue was accepted by the stack
+    public void packetWritten() {
+        byte[] data = packets.poll();
+        if (data != null) {
+            bytesWritten += data.length;
+            packetsWritten++;
+        }
+        retries = 0;
+    }
+
+    // the stack buffer was full, returns the number of consecutive retries
+    public int retry() {
+        return ++retries;
+    }
+
+    public void sendProgress() {
+        PluginResult result = new PluginResult(PluginResult.Status.OK, asJSONObject("progress"));
+        result.setKeepCallback(true);
+        callbackContext.sendPluginResult(result);
+    }
+
+    public void sendComplete() {
+        callbackContext.success(asJSONObject("complete"));
+    }
+
+    public void sendError(String message) {
+        JSONObject json = asJSONObject("error");
+        try {
+            json.put("errorMessage", message);
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        callbackContext.error(json);
+    }
+
+    private JSONObject asJSONObject(String status) {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("status", status);
+            json.put("bytesWritten", bytesWritten);
+            json.put("packetsWritten", packetsWritten);
+            json.put("packetsPending", packets.size());
+        } catch (JSONException e) { // this shouldn't happen
+            e.printStackTrace();
+        }
+        return json;
+    }
+}
@@ -14,6 +14,15 @@ var base64ToArrayBuffer = function (b64) {
   return stringToArrayBuffer(atob(b64));
 };
 
+var arrayBufferToBase64 = function (buffer) {
+  var bytes = new Uint8Array(buffer);
+  var binary = '';
+  for (var i = 0; i < bytes.length; i++) {
+    binary += String.fromCharCode(bytes[i]);
+  }
+  return btoa(binary);
+};
+
 function massageMessageNativeToJs(message) {
   if (message.CDVType == 'ArrayBuffer') {
     message = base64ToArrayBuffer(message.data);
@@ -33,6 +42,31 @@ function convertToNativeJS(object) {
   });
 }
 
+// binaryAdvertising results arrive as (peripheral, advertising ArrayBuffer), nothing to decode
+// batched scan results (reportDelay) arrive as one array, followed by one ArrayBuffer per peripheral
+// when binary, and are still reported one peripheral at a time
+function peripheralCallback(success) {
+  var report = function (peripheral, advertising) {
+    if (advertising !== undefined) {
+      peripheral.advertising = advertising;
+    } else {
+      convertToNativeJS(peripheral);
+    }
+    success(peripheral);
+  };
+
+  return function (peripheral, advertising) {
+    if (Array.isArray(peripheral)) {
+      var parts = arguments;
+      peripheral.forEach(function (p, i) {
+        report(p, parts[i + 1]);
+      });
+    } else {
+      report(peripheral, advertising);
+    }
+  };
+}
+
 var bluetoothleName = 'SolaariBLE';
 var SolaariBLE = {
   // SLAVE
@@ -56,13 +90,10 @@ var SolaariBLE = {
     exec(success, failure, bluetoothleName, 'stopScan', []);
   },
 
+  // options.binaryAdvertising (Android only) sends the advertising data as a binary part
   startScanWithOptions: function (services, options, success, failure) {
-    var successWrapper = function (peripheral) {
-      convertToNativeJS(peripheral);
-      success(peripheral);
-    };
     options = options || {};
-    exec(successWrapper, failure, bluetoothleName, 'startScanWithOptions', [services, options]);
+    exec(peripheralCallback(success), failure, bluetoothleName, 'startScanWithOptions', [services, options]);
   },
 
   // iOS only
@@ -85,24 +116,18 @@ var SolaariBLE = {
     exec(success, failure, bluetoothleName, 'list', []);
   },
 
-  connect: function (device_id, success, failure) {
+  // options.binaryAdvertising (Android only) sends the advertising data as a binary part
+  connect: function (device_id, success, failure, options) {
     // wrap success so nested array buffers in advertising info are handled correctly
-    var successWrapper = function (peripheral) {
-      convertToNativeJS(peripheral);
-      success(peripheral);
-    };
-    exec(successWrapper, failure, bluetoothleName, 'connect', [device_id]);
+    exec(peripheralCallback(success), failure, bluetoothleName, 'connect', [device_id, options]);
   },
 
-  autoConnect: function (deviceId, connectCallback, disconnectCallback) {
+  autoConnect: function (deviceId, connectCallback, disconnectCallback, options) {
     var disconnectCallbackWrapper;
     autoconnected[deviceId] = true;
 
     // wrap connectCallback so nested array buffers in advertising info are handled correctly
-    var connectCallbackWrapper = function (peripheral) {
-      convertToNativeJS(peripheral);
-      connectCallback(peripheral);
-    };
+    var connectCallbackWrapper = peripheralCallback(connectCallback);
 
     // iOS needs to reconnect on disconnect, unless ble.disconnect was called.
     if (cordova.platformId === 'ios') {
@@ -120,7 +145,7 @@ var SolaariBLE = {
       disconnectCallbackWrapper = disconnectCallback;
     }
 
-    exec(connectCallbackWrapper, disconnectCallbackWrapper, bluetoothleName, 'autoConnect', [deviceId]);
+    exec(connectCallbackWrapper, disconnectCallbackWrapper, bluetoothleName, 'autoConnect', [deviceId, options]);
   },
 
   disconnect: function (device_id, success, failure) {
@@ -136,6 +161,27 @@ var SolaariBLE = {
     exec(success, failure, bluetoothleName, 'queueCleanup', [device_id]);
   },
 
+  // Android only
+  // timeouts in milliseconds keyed by command, e.g. { read: 3000, write: 5000, startNotification: 5000 }
+  // 0 disables the timeout, success is called with the timeouts now in effect
+  setCommandTimeouts: function (device_id, timeouts, success, failure) {
+    exec(success, failure, bluetoothleName, 'setCommandTimeouts', [device_id, timeouts]);
+  },
+
+  // Android only
+  // number of commands failed by the timeout watchdog, per command and in total
+  getTimeoutCounts: function (device_id, success, failure) {
+    exec(success, failure, bluetoothleName, 'getTimeoutCounts', [device_id]);
+  },
+
+  // Android only
+  // operations queued, completed and failed per command, bytesIn, bytesOut, notifications,
+  // notificationsPerSecond, queueDepth, queueHighWater, timeouts and the queueLatency and
+  // callbackLatency histograms in milliseconds, reset starts counting again after this call
+  getStats: function (device_id, success, failure, reset) {
+    exec(success, failure, bluetoothleName, 'getStats', [device_id, !!reset]);
+  },
+
   setPin: function (pin, success, failure) {
     exec(success, failure, bluetoothleName, 'setPin', [pin]);
   },
@@ -149,38 +195,97 @@ var SolaariBLE = {
   },
 
   refreshDeviceCache: function (deviceId, timeoutMillis, success, failure) {
-    var successWrapper = function (peripheral) {
-      convertToNativeJS(peripheral);
-      success(peripheral);
-    };
-    exec(successWrapper, failure, bluetoothleName, 'refreshDeviceCache', [deviceId, timeoutMillis]);
+    exec(peripheralCallback(success), failure, bluetoothleName, 'refreshDeviceCache', [deviceId, timeoutMillis]);
   },
 
+  // priority is optional, 'control' (default) or 'bulk' (Android only)
+  // control commands are always sent before bulk commands so large transfers don't delay them
+
   // characteristic value comes back as ArrayBuffer in the success callback
-  read: function (device_id, service_uuid, characteristic_uuid, success, failure) {
-    exec(success, failure, bluetoothleName, 'read', [device_id, service_uuid, characteristic_uuid]);
+  read: function (device_id, service_uuid, characteristic_uuid, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'read', [device_id, service_uuid, characteristic_uuid, priority]);
+  },
+
+  // Android only
+  // descriptor value comes back as ArrayBuffer in the success callback
+  readDescriptor: function (device_id, service_uuid, characteristic_uuid, descriptor_uuid, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'readDescriptor', [
+      device_id,
+      service_uuid,
+      characteristic_uuid,
+      descriptor_uuid,
+      priority,
+    ]);
+  },
+
+  // Android only
+  // value must be an ArrayBuffer
+  writeDescriptor: function (device_id, service_uuid, characteristic_uuid, descriptor_uuid, value, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'writeDescriptor', [
+      device_id,
+      service_uuid,
+      characteristic_uuid,
+      descriptor_uuid,
+      value,
+      priority,
+    ]);
   },
 
   // RSSI value comes back as an integer
-  readRSSI: function (device_id, success, failure) {
-    exec(success, failure, bluetoothleName, 'readRSSI', [device_id]);
+  readRSSI: function (device_id, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'readRSSI', [device_id, priority]);
   },
 
   // value must be an ArrayBuffer
-  write: function (device_id, service_uuid, characteristic_uuid, value, success, failure) {
-    exec(success, failure, bluetoothleName, 'write', [device_id, service_uuid, characteristic_uuid, value]);
+  write: function (device_id, service_uuid, characteristic_uuid, value, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'write', [device_id, service_uuid, characteristic_uuid, value, priority]);
   },
 
   // value must be an ArrayBuffer
-  writeWithoutResponse: function (device_id, service_uuid, characteristic_uuid, value, success, failure) {
+  writeWithoutResponse: function (device_id, service_uuid, characteristic_uuid, value, success, failure, priority) {
     exec(success, failure, bluetoothleName, 'writeWithoutResponse', [
       device_id,
       service_uuid,
       characteristic_uuid,
       value,
+      priority,
     ]);
   },
 
+  // Android only
+  // value must be an ArrayBuffer, it is split natively into fragments that fit the negotiated MTU
+  // the fragments are written back to back and success is called once when all are written
+  writeChunked: function (device_id, service_uuid, characteristic_uuid, value, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'writeChunked', [device_id, service_uuid, characteristic_uuid, value, priority]);
+  },
+
+  // Android only
+  // same as writeChunked, each fragment is written without response
+  writeChunkedWithoutResponse: function (device_id, service_uuid, characteristic_uuid, value, success, failure, priority) {
+    exec(success, failure, bluetoothleName, 'writeChunkedWithoutResponse', [
+      device_id,
+      service_uuid,
+      characteristic_uuid,
+      value,
+      priority,
+    ]);
+  },
+
+  // Android only
+  // writes is an array of { service, characteristic, value } where value must be an ArrayBuffer
+  // the writes are prepared and executed together, if any write fails none of them are applied,
+  // the Android stack checks the peripheral's echo of each prepared write and aborts on a mismatch
+  reliableWrite: function (device_id, writes, success, failure, priority) {
+    var encoded = writes.map(function (write) {
+      return {
+        service: write.service,
+        characteristic: write.characteristic,
+        value: arrayBufferToBase64(write.value),
+      };
+    });
+    exec(success, failure, bluetoothleName, 'reliableWrite', [device_id, encoded, priority]);
+  },
+
   // value must be an ArrayBuffer
   writeCommand: function (device_id, service_uuid, characteristic_uuid, value, success, failure) {
     console.log('WARNING: writeCommand is deprecated, use writeWithoutResponse');
@@ -192,6 +297,50 @@ var SolaariBLE = {
     ]);
   },
 
+  // Android only
+  // success callback is called with progress each time the pending packets are drained
+  // and once with status "complete" after stopWriteStream, failure is called if the stream fails
+  startWriteStream: function (device_id, service_uuid, characteristic_uuid, success, failure) {
+    exec(success, failure, bluetoothleName, 'startWriteStream', [device_id, service_uuid, characteristic_uuid]);
+  },
+
+  // Android only
+  // value must be an ArrayBuffer, it is written without response as a single packet
+  // failure is called for a packet larger than MTU - 3 bytes
+  // there is no success callback, progress is reported to the startWriteStream callback
+  writeStream: function (device_id, value, failure) {
+    exec(null, failure, bluetoothleName, 'writeStream', [device_id, value]);
+  },
+
+  // Android only
+  // pending packets are still written, completion is reported to the startWriteStream callback
+  stopWriteStream: function (device_id, success, failure) {
+    exec(success, failure, bluetoothleName, 'stopWriteStream', [device_id]);
+  },
+
+  // Android only
+  // operations is an array of { op, id, service, characteristic, value, priority }
+  // op is one of read | readRSSI | write | writeWithoutResponse, value must be an ArrayBuffer
+  // success is called once with an array of { index, op, id, status, value | error }
+  // with options.stream, success is called for each result as it completes, then with { status: 'complete' }
+  executeBatch: function (operations, success, failure, options) {
+    var ops = operations.map(function (operation) {
+      var op = {};
+      Object.keys(operation).forEach(function (key) {
+        op[key] = operation[key];
+      });
+      if (op.value instanceof ArrayBuffer) {
+        op.value = arrayBufferToBase64(op.value);
+      }
+      return op;
+    });
+    var successWrapper = function (result) {
+      convertToNativeJS(result);
+      success(result);
+    };
+    exec(successWrapper, failure, bluetoothleName, 'executeBatch', [ops, options || {}]);
+  },
+
   // success callback is called on notification
   notify: function (device_id, service_uuid, characteristic_uuid, success, failure) {
     console.log('WARNING: notify is deprecated, use startNotification');
@@ -199,8 +348,119 @@ var SolaariBLE = {
   },
 
   // success callback is called on notification
-  startNotification: function (device_id, service_uuid, characteristic_uuid, success, failure) {
-    exec(success, failure, bluetoothleName, 'startNotification', [device_id, service_uuid, characteristic_uuid]);
+  // options (Android only)
+  //   { batchInterval: ms, batchBytes: n } buffers notifications natively and delivers them
+  //   in one bridge call, success is still called once per notification
+  //   { bufferSize: n, overflow: 'dropOldest' | 'dropNewest' | 'block' } bounds the notifications
+  //   waiting for the bridge, success gets a third argument with the number of dropped notifications,
+  //   at most n notifications are in flight until this wrapper acknowledges them
+  //   { compact: true } sends each notification as one frame with the sequence number in a header
+  //   { changesOnly: true, heartbeat: seconds } skips values identical to the last one delivered,
+  //   an unchanged value is still delivered once per heartbeat when it is set
+  //   { decimate: n } delivers every nth notification
+  //   { maxRate: hz } delivers at most hz notifications per second, the latest value wins
+  //   { schema: [{ offset: 0, type: 'int16', scale: 0.01, bigEndian: false }, ...] } decodes natively,
+  //   success gets a Float64Array with one value per field, types are int8 | uint8 | int16 | uint16
+  //   | int32 | uint32 | float32
+  startNotification: function (device_id, service_uuid, characteristic_uuid, success, failure, options) {
+    // other platforms ignore the options and send the raw value, so the callback is not wrapped
+    if (cordova.platformId !== 'android') {
+      exec(success, failure, bluetoothleName, 'startNotification', [device_id, service_uuid, characteristic_uuid, options]);
+      return;
+    }
+    if (options && options.schema) {
+      var onRaw = success;
+      success = function (data, sequence, dropped) {
+        onRaw(new Float64Array(data), sequence, dropped);
+      };
+    }
+    if (options && options.bufferSize) {
+      // acknowledge every half buffer so the native side keeps sending
+      var onDelivered = success;
+      var ackEvery = Math.max(1, Math.floor(options.bufferSize / 2));
+      var received = 0;
+      success = function (data, sequence, dropped) {
+        if (++received >= ackEvery) {
+          exec(null, null, bluetoothleName, 'acknowledgeNotifications', [device_id, service_uuid, characteristic_uuid, received]);
+          received = 0;
+        }
+        onDelivered(data, sequence, dropped);
+      };
+    }
+    var onNotification = success;
+    if (options && (options.batchInterval || options.batchBytes)) {
+      onNotification = function (data, lengths, sequences, dropped) {
+        var offset = 0;
+        for (var i = 0; i < lengths.length; i++) {
+          success(data.slice(offset, offset + lengths[i]), sequences[i], dropped);
+          offset += lengths[i];
+        }
+      };
+    } else if (options && options.compact) {
+      onNotification = function (frame) {
+        var header = new DataView(frame);
+        if (options.bufferSize) {
+          success(frame.slice(8), header.getUint32(0, true), header.getUint32(4, true));
+        } else {
+          success(frame.slice(4), header.getUint32(0, true));
+        }
+      };
+    }
+    exec(onNotification, failure, bluetoothleName, 'startNotification', [
+      device_id,
+      service_uuid,
+      characteristic_uuid,
+      options,
+    ]);
+  },
+
+  // Android only
+  // subscriptions is an array of { service: uuid, characteristic: uuid, success: function(data, sequence) }
+  // notifications go to the success function of each subscription, success is called once
+  // when all subscriptions are active, failure receives { status, active, errors: [{ index, error }] }
+  startNotifications: function (device_id, subscriptions, success, failure) {
+    var characteristics = subscriptions.map(function (subscription) {
+      return { service: subscription.service, characteristic: subscription.characteristic };
+    });
+    var onResult = function (data, sequence, index) {
+      if (index === undefined) {
+        if (success) {
+          success(data);
+        }
+        return;
+      }
+      var subscription = subscriptions[index];
+      if (subscription && subscription.success) {
+        subscription.success(data, sequence);
+      }
+    };
+    exec(onResult, failure, bluetoothleName, 'startNotifications', [device_id, characteristics]);
+  },
+
+  // Android only
+  // records every notification of a characteristic to an app-local file, call startNotification first
+  // success gets { name, path, recording, records, bytes }, name is optional
+  startRecording: function (device_id, service_uuid, characteristic_uuid, success, failure, name) {
+    exec(success, failure, bluetoothleName, 'startRecording', [device_id, service_uuid, characteristic_uuid, name]);
+  },
+
+  // Android only
+  // success gets the final { name, path, records, bytes }
+  stopRecording: function (device_id, service_uuid, characteristic_uuid, success, failure) {
+    exec(success, failure, bluetoothleName, 'stopRecording', [device_id, service_uuid, characteristic_uuid]);
+  },
+
+  // Android only
+  // success gets an ArrayBuffer of at most length bytes (1 MiB max), empty at the end of the file
+  // records are little endian [int64 timestamp][int32 sequence][uint16 length][payload]
+  // after a 5 byte 'SBLR' version header
+  readRecording: function (name, offset, length, success, failure) {
+    exec(success, failure, bluetoothleName, 'readRecording', [name, offset, length]);
+  },
+
+  // Android only
+  deleteRecording: function (name, success, failure) {
+    exec(success, failure, bluetoothleName, 'deleteRecording', [name]);
   },
 
   // success callback is called when the descriptor 0x2902 is written